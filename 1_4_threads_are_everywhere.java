@@ -27,3 +27,393 @@
 //    thread-safety: the thread that calls remote method is not the thread you created 
 //                  remote object must guard against two thread safety hazards
 //                  coordinating access to state shared with other objects and access to the state of the remote object itself 
+//
+// Virtual Threads (JDK 21)
+//   the container's pool of platform threads caps the number of requests in service() at the same time
+//   a request that is blocked in a slow encode or I/O phase still holds one of those (expensive, OS-level) threads
+//   a virtual thread is cheap enough to create one per request: when it blocks, it unmounts from its carrier thread
+//   exception (JDK 21-23 only): a virtual thread that blocks inside a synchronized block stays pinned to its carrier;
+//   since JDK 24 (JEP 491) synchronized no longer pins, only native frames and class initializers still do
+//
+// example: a Local Dispatcher that Runs service() on Virtual Threads
+@ThreadSafe
+public class VirtualThreadDispatcher {
+    private final Servlet servlet;
+    private final ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+
+    public VirtualThreadDispatcher(Servlet servlet) {
+        this.servlet = servlet;
+    }
+
+    public Future<?> dispatch(final ServletRequest req, final ServletResponse resp) {
+        return exec.submit(new Runnable() {
+            public void run() {
+                servlet.service(req, resp);                 // one new virtual thread per request, no pool to size
+            }
+        });
+    }
+
+    // a structured scope for batch requests: the subtasks cannot outlive the request, and the first failure cancels the rest
+    //   (this is the JDK 21-24 preview API, compile and run with --enable-preview; JDK 25 removed ShutdownOnFailure,
+    //   there the same scope is StructuredTaskScope.open(Joiner.awaitAllSuccessfulOrThrow()) and join() throws itself)
+    public List<BigInteger[]> factorAll(List<BigInteger> numbers, final Factorizer engine)
+            throws InterruptedException, ExecutionException {
+        try (StructuredTaskScope.ShutdownOnFailure scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            List<StructuredTaskScope.Subtask<BigInteger[]>> subtasks = new ArrayList<StructuredTaskScope.Subtask<BigInteger[]>>();
+            for (final BigInteger i : numbers) {
+                subtasks.add(scope.fork(() -> engine.factor(i)));
+            }
+            scope.join().throwIfFailed();
+            List<BigInteger[]> results = new ArrayList<BigInteger[]>(subtasks.size());
+            for (StructuredTaskScope.Subtask<BigInteger[]> s : subtasks) {
+                results.add(s.get());
+            }
+            return results;
+        }
+    }
+
+    public void shutdown() {
+        exec.shutdown();
+    }
+}
+
+// example: Detecting Pinning with JFR (jdk.VirtualThreadPinned is emitted when a virtual thread blocks while pinned)
+//   for a quick look during development, -Djdk.tracePinnedThreads=full prints the stack of every pinned block instead
+//   every pinned block is counted; the event (duration, stack trace) goes to the caller's consumer, e.g. the app's logger
+public static RecordingStream watchPinning(final LongAdder pinnedCount, final Consumer<RecordedEvent> onPinned) {
+    RecordingStream rs = new RecordingStream();
+    rs.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(1)).withStackTrace();
+    rs.onEvent("jdk.VirtualThreadPinned", event -> {
+        pinnedCount.increment();
+        onPinned.accept(event);
+    });
+    rs.startAsync();
+    return rs;
+}
+// on JDK 21-23, CachedFactorizer and UnsafeCachingFactorizer block inside synchronized(this), so they show up here;
+//   see LockedCachedFactorizer (Liveness and Performance) for the ReentrantLock version that does not pin
+//
+// example: Driver Comparing a Platform Thread Pool with Virtual Threads on 10000 Blocking Requests
+//   1) Executors.newFixedThreadPool(200) (a typical container pool): completes ~200 requests per blocking interval
+//   2) a virtual thread per request (what VirtualThreadDispatcher uses): all requests are in flight at once,
+//      and the completion time approaches one blocking interval
+//   returns { wall time, p99 latency } in nanos; latency is measured from submission, so it includes queueing
+public static long[] runRequests(ExecutorService exec, final Servlet servlet, int requests)
+        throws InterruptedException, ExecutionException {
+    final long[] latencies = new long[requests];         // each task writes only its own element
+    List<Future<?>> futures = new ArrayList<Future<?>>(requests);
+    long start = System.nanoTime();
+    for (int k = 0; k < requests; k++) {
+        final int id = k;
+        final long submitted = System.nanoTime();
+        futures.add(exec.submit(new Runnable() {
+            public void run() {
+                servlet.service(requestFor(BigInteger.valueOf(id)), discardingResponse());
+                latencies[id] = System.nanoTime() - submitted;
+            }
+        }));
+    }
+    for (Future<?> f : futures) {
+        f.get();                                         // also makes every latencies[id] write visible here
+    }
+    long wall = System.nanoTime() - start;
+    exec.shutdown();
+    Arrays.sort(latencies);
+    return new long[] { wall, latencies[(int) Math.ceil(requests * 0.99) - 1] };
+}
+
+public static void compareDispatch(int requests, final long blockMillis) throws InterruptedException, ExecutionException {
+    Servlet blocking = new Servlet() {                   // stands in for a service() blocked in a slow encode or I/O
+        public void service(ServletRequest req, ServletResponse resp) {
+            try {
+                Thread.sleep(blockMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+    LongAdder pinned = new LongAdder();
+    try (RecordingStream rs = watchPinning(pinned, event -> { })) {
+        long[] platform = runRequests(Executors.newFixedThreadPool(200), blocking, requests);
+        long[] virtual = runRequests(Executors.newVirtualThreadPerTaskExecutor(), blocking, requests);
+        System.out.printf("platform pool: wall %d ms, p99 %d ms%n", platform[0] / 1000000, platform[1] / 1000000);
+        System.out.printf("virtual:       wall %d ms, p99 %d ms, pinned events %d%n",
+            virtual[0] / 1000000, virtual[1] / 1000000, pinned.sum());
+    }
+}
+// usage: compareDispatch(10000, 50); expect ~2.5 s vs ~50 ms of wall time, and no pinned events for this servlet
+//   (swap in a servlet that sleeps inside synchronized to see the pinned events on JDK 21-23)
+//
+// Timer at scale
+//   java.util.Timer runs every task on one thread and keeps them in a binary heap (O(log n) schedule, O(log n) purge),
+//   and a cancelled TimerTask stays in the heap until its time comes or purge() is called;
+//   ScheduledThreadPoolExecutor has the same heap (removeOnCancel makes cancel O(n) per task unless left lazy)
+//   per-request timeouts are the worst case for a heap: millions outstanding, and almost all cancelled before they fire
+//
+// example: Hierarchical Timing Wheel
+//   level 0 has wheelSize buckets of one tick each, level l has wheelSize buckets of wheelSize^l ticks each;
+//   a timeout sits in the lowest level whose span covers it, and moves down a level (cascades) as time approaches
+//   schedule and cancel are O(1): a queue offer and a CAS; the ticker thread does all the bucket work in batches
+@ThreadSafe
+public class TimingWheel {
+    private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadline;                     // in ticks
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private Timeout prev, next;                      // bucket links, confined to the ticker thread
+        private List<Timeout> overflow;                  // non-null while parked beyond the top level
+        private Timeout[] bucketHead;                    // head holder of the bucket it is linked into
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {                        // O(1) from any thread: the ticker unlinks it at its next tick
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelled.offer(this);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final long tickNanos;
+    private final int bits, mask, levels;
+    private final Timeout[][] heads;                     // heads[level * wheelSize + index][0]: one holder per bucket
+    private final List<Timeout> overflow = new ArrayList<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final Executor executor;                     // expired tasks run here, never on the ticker thread
+    private final long start = System.nanoTime();
+    private long tick;                                   // confined to the ticker thread
+
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, int levels, Executor executor) {
+        if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {   // a single bucket would never advance a level
+            throw new IllegalArgumentException("wheelSize must be a power of 2, at least 2: " + wheelSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(wheelSize);
+        if (levels < 1 || (long) bits * levels >= 63) {  // the top level's span, in ticks, must fit in a long
+            throw new IllegalArgumentException("levels must be in [1, " + (62 / bits) + "]: " + levels);
+        }
+        long tickNanos = unit.toNanos(tickDuration);
+        if (tickNanos <= 0) {                            // a zero tick would divide by zero in schedule()
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration + " " + unit);
+        }
+        this.tickNanos = tickNanos;
+        this.bits = bits;
+        this.mask = wheelSize - 1;
+        this.levels = levels;
+        this.heads = new Timeout[levels * wheelSize][1];
+        this.executor = executor;
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long now = System.nanoTime() - start;
+        long delayNanos = Math.max(0, unit.toNanos(delay));                  // toNanos already saturates at Long.MAX_VALUE
+        delayNanos = Math.min(delayNanos, Long.MAX_VALUE - now - tickNanos); // saturate: the sum below must not overflow
+        long deadline = (now + delayNanos + tickNanos - 1) / tickNanos;      //   into a deadline in the past
+        Timeout t = new Timeout(task, deadline);
+        scheduled.offer(t);                              // O(1), lock-free; placed into its bucket at the next tick
+        return t;
+    }
+
+    // the ticker loop, run on one dedicated thread
+    public void run() throws InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleep = (tick + 1) * tickNanos - (System.nanoTime() - start);
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            tick++;
+            Timeout t;
+            while ((t = cancelled.poll()) != null) {     // batch: unlink everything cancelled since the last tick
+                unlink(t);
+            }
+            while ((t = scheduled.poll()) != null) {     // batch: place everything scheduled since the last tick
+                if (t.state.get() == PENDING) {
+                    place(t);
+                }
+            }
+            if ((tick & ((1L << (bits * levels)) - 1)) == 0) {   // the top level wrapped: retry the far-future timeouts
+                List<Timeout> far = new ArrayList<Timeout>(overflow);
+                overflow.clear();
+                for (Timeout f : far) {
+                    f.overflow = null;
+                    place(f);
+                }
+            }
+            for (int level = levels - 1; level > 0; level--) {   // cascade, highest level first
+                if ((tick & ((1L << (bits * level)) - 1)) == 0) {
+                    for (Timeout c : drain(level, (int) (tick >>> (bits * level)) & mask)) {
+                        place(c);
+                    }
+                }
+            }
+            for (Timeout e : drain(0, (int) tick & mask)) {       // expire this tick's bucket
+                if (e.state.compareAndSet(PENDING, EXPIRED)) {
+                    executor.execute(e.task);
+                }
+            }
+        }
+    }
+
+    // lowest level l whose next-higher digit of the deadline equals the current tick's (i.e. it lands within this span)
+    private void place(Timeout t) {
+        if (t.deadline <= tick) {
+            if (t.state.compareAndSet(PENDING, EXPIRED)) {
+                executor.execute(t.task);                // already due (scheduled late, or a delay shorter than a tick)
+            }
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            if (t.deadline >>> (bits * (level + 1)) == tick >>> (bits * (level + 1))) {
+                link(t, heads[level * (mask + 1) + ((int) (t.deadline >>> (bits * level)) & mask)]);
+                return;
+            }
+        }
+        t.overflow = overflow;
+        overflow.add(t);                                 // beyond the top level: re-placed when the top level wraps
+    }
+
+    private void link(Timeout t, Timeout[] head) {
+        t.bucketHead = head;
+        t.prev = null;
+        t.next = head[0];
+        if (head[0] != null) {
+            head[0].prev = t;
+        }
+        head[0] = t;
+    }
+
+    private void unlink(Timeout t) {                     // O(1) for bucketed timeouts
+        if (t.bucketHead != null) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                t.bucketHead[0] = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucketHead = null;
+        } else if (t.overflow != null) {
+            t.overflow.remove(t);                        // rare: only timeouts beyond wheelSize^levels ticks
+            t.overflow = null;
+        }                                                // otherwise it was still in the scheduled queue: skipped there
+    }
+
+    private List<Timeout> drain(int level, int index) {
+        Timeout[] head = heads[level * (mask + 1) + index];
+        List<Timeout> out = new ArrayList<Timeout>();
+        for (Timeout t = head[0]; t != null; ) {
+            Timeout next = t.next;
+            t.prev = t.next = null;
+            t.bucketHead = null;
+            out.add(t);
+            t = next;
+        }
+        head[0] = null;
+        return out;
+    }
+}
+// why is it thread-safe?
+//   the wheel itself (buckets, links, tick, overflow) is confined to the ticker thread
+//   other threads only touch the two ConcurrentLinkedQueues and the per-timeout AtomicInteger state,
+//   and the state CAS decides exactly once whether a timeout runs or is cancelled
+//   tasks run on the executor, so a slow task cannot delay the ticks (unlike a TimerTask on Timer's only thread)
+
+// example: per-request timeout benchmark (JMH, run with -t 1, 4, 16 and -prof gc)
+//   every operation schedules a 1-30 s timeout and cancels it straight away, the common case for request timeouts,
+//   on top of `outstanding` timeouts that are scheduled hours ahead and stay pending for the whole run
+@State(Scope.Benchmark)
+public class TimeoutBenchmark {
+    @Param({ "timer", "scheduledPool", "scheduledPoolRemoveOnCancel", "timingWheel" }) String impl;
+    @Param({ "0", "1000000" }) int outstanding;
+    static final Runnable NOOP = new Runnable() {
+        public void run() { }
+    };
+
+    interface Timeouts {
+        Object schedule(long delayMillis);
+        void cancel(Object timeout);
+    }
+
+    Timeouts timeouts;
+    Timer timer;
+    ScheduledThreadPoolExecutor pool;
+    Thread ticker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (impl.equals("timer")) {
+            timer = new Timer(true);
+            timeouts = new Timeouts() {
+                public Object schedule(long delayMillis) {
+                    TimerTask task = new TimerTask() {
+                        public void run() { }
+                    };
+                    timer.schedule(task, delayMillis);
+                    return task;
+                }
+                public void cancel(Object timeout) { ((TimerTask) timeout).cancel(); }  // stays in the heap until due
+            };
+        } else if (impl.startsWith("scheduledPool")) {
+            pool = new ScheduledThreadPoolExecutor(1);
+            pool.setRemoveOnCancelPolicy(impl.endsWith("RemoveOnCancel"));   // O(log n) removal at cancel time
+            timeouts = new Timeouts() {
+                public Object schedule(long delayMillis) { return pool.schedule(NOOP, delayMillis, TimeUnit.MILLISECONDS); }
+                public void cancel(Object timeout) { ((Future<?>) timeout).cancel(false); }
+            };
+        } else {
+            final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 256, 4, new Executor() {
+                public void execute(Runnable task) { task.run(); }            // the tasks are no-ops
+            });
+            ticker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        wheel.run();
+                    } catch (InterruptedException e) {
+                        // tearDown: let the thread exit
+                    }
+                }
+            }, "timing-wheel");
+            ticker.setDaemon(true);
+            ticker.start();
+            timeouts = new Timeouts() {
+                public Object schedule(long delayMillis) { return wheel.schedule(NOOP, delayMillis, TimeUnit.MILLISECONDS); }
+                public void cancel(Object timeout) { ((TimingWheel.Timeout) timeout).cancel(); }
+            };
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < outstanding; i++) {
+            timeouts.schedule(TimeUnit.HOURS.toMillis(1) + random.nextLong(TimeUnit.HOURS.toMillis(29)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        timeouts.cancel(timeouts.schedule(1000 + ThreadLocalRandom.current().nextInt(29000)));
+    }
+}
+// expected shape: Timer and the lazy pool hold every cancelled task until it comes due (up to 30 s of them, visible in
+//   -prof gc and the heap), and all their schedules contend on one heap lock, paying O(log n) for the outstanding timeouts;
+//   removeOnCancel keeps the heap small but cancels under the same lock; TimingWheel stays flat in `outstanding`
+//   and scales with threads, since schedule and cancel are a lock-free queue offer and a CAS
+//   (a 1 ms tick, wheelSize 256 and 4 levels span about 4.2 million seconds before the overflow list is used)
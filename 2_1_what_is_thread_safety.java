@@ -28,3 +28,472 @@ public class StatelessFactorizer implements Servlet {
 }
 // the servlet is stateless: no shared state (field or references) between threads
 // one thread's accessing of StatelessFactorizer cannot influence the result of another thread's accessing
+
+// the factoring engine behind factor(i) can be stateless too
+//   factoring is the dominant cost per request, so the servlets should be able to choose an engine
+//   an engine without fields (or with only final, immutable fields) can be shared by all servlets and all threads
+//
+// example: a Strategy Interface for the Factoring Engine
+public interface Factorizer {
+    BigInteger[] factor(BigInteger n);                   // prime factors of n (n > 0), in ascending order, with multiplicity
+}
+
+// example: Trial Division + Miller-Rabin + Pollard-rho (Brent variant) Engine
+@ThreadSafe
+public class RhoFactorizer implements Factorizer {
+    private static final int TRIAL_BOUND = 1000;        // trial division by the primes below this bound
+    // the first 12 primes as Miller-Rabin witnesses are deterministic for n < 3.3 * 10^24 (about 81 bits)
+    private static final BigInteger[] WITNESSES = {
+        BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(5), BigInteger.valueOf(7),
+        BigInteger.valueOf(11), BigInteger.valueOf(13), BigInteger.valueOf(17), BigInteger.valueOf(19),
+        BigInteger.valueOf(23), BigInteger.valueOf(29), BigInteger.valueOf(31), BigInteger.valueOf(37)
+    };
+    private static final int DETERMINISTIC_BITS = 81;
+    private static final int BATCH = 128;                // gcds are batched: one gcd per BATCH multiplications
+
+    public BigInteger[] factor(BigInteger n) {
+        if (n.signum() <= 0) {                                     // 0 would divide forever, -1 is not a prime factor
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        List<BigInteger> factors = new ArrayList<BigInteger>();   // stack confined, so the engine stays stateless
+        split(trialDivide(n, factors), factors);
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+
+    // 1) trial division by small primes: adds them to factors and returns the remaining cofactor
+    static BigInteger trialDivide(BigInteger n, List<BigInteger> factors) {
+        PrimeTable primes = PrimeSieve.shared().ensure(TRIAL_BOUND);  // shared, immutable, iterated without allocation
+        for (int p = 2; p != -1 && p < TRIAL_BOUND; p = primes.nextPrime(p)) {
+            BigInteger bp = BigInteger.valueOf(p);
+            while (n.mod(bp).signum() == 0) {
+                factors.add(bp);
+                n = n.divide(bp);
+            }
+        }
+        return n;
+    }
+
+    private static void split(BigInteger n, List<BigInteger> factors) {
+        if (n.equals(BigInteger.ONE)) {
+            return;
+        }
+        if (isPrime(n)) {                                          // 2) Miller-Rabin primality test
+            factors.add(n);
+            return;
+        }
+        BigInteger d = brent(n);                                   // 3) Pollard-rho splitting
+        split(d, factors);
+        split(n.divide(d), factors);
+    }
+
+    static boolean isPrime(BigInteger n) {
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int s = nMinusOne.getLowestSetBit();
+        BigInteger d = nMinusOne.shiftRight(s);
+        witness:
+        for (BigInteger a : WITNESSES) {
+            if (a.compareTo(nMinusOne) >= 0) {
+                break;
+            }
+            BigInteger x = a.modPow(d, n);
+            if (x.equals(BigInteger.ONE) || x.equals(nMinusOne)) {
+                continue;
+            }
+            for (int r = 1; r < s; r++) {
+                x = x.multiply(x).mod(n);
+                if (x.equals(nMinusOne)) {
+                    continue witness;
+                }
+            }
+            return false;
+        }
+        return n.bitLength() <= DETERMINISTIC_BITS || n.isProbablePrime(64);
+    }
+
+    // Brent's cycle detection: y runs ahead in powers of two, x remembers where the current run started
+    static BigInteger brent(BigInteger n) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (true) {
+            BigInteger c = new BigInteger(n.bitLength(), rnd).mod(n.subtract(BigInteger.ONE)).add(BigInteger.ONE);
+            BigInteger y = new BigInteger(n.bitLength(), rnd).mod(n);
+            BigInteger d = walk(n, c, y, null);
+            if (d != null) {
+                return d;
+            }                                                      // otherwise retry with a different c and start
+        }
+    }
+
+    // one rho walk from a given seed; returns a proper divisor of n, or null if the walk failed or another walk already won
+    static BigInteger walk(BigInteger n, BigInteger c, BigInteger y, AtomicReference<BigInteger> found) {
+        BigInteger x = y, ys = y, q = BigInteger.ONE, g = BigInteger.ONE;
+        for (int r = 1; g.equals(BigInteger.ONE); r <<= 1) {
+            x = y;
+            for (int i = 0; i < r; i++) {
+                if (i % BATCH == 0 && found != null && found.get() != null) {  // the advance phase doubles every round,
+                    return null;                                             //   so it polls the flag as well
+                }
+                y = step(y, c, n);
+            }
+            for (int k = 0; k < r && g.equals(BigInteger.ONE); k += BATCH) {
+                if (found != null && found.get() != null) {    // cooperative cancellation, checked once per batch
+                    return null;
+                }
+                ys = y;
+                for (int i = 0; i < Math.min(BATCH, r - k); i++) {
+                    y = step(y, c, n);
+                    q = q.multiply(x.subtract(y).abs()).mod(n);
+                }
+                g = q.gcd(n);
+            }
+        }
+        if (g.equals(n)) {                                         // the batch overshot: replay it one gcd at a time
+            do {
+                ys = step(ys, c, n);
+                g = x.subtract(ys).abs().gcd(n);
+            } while (g.equals(BigInteger.ONE));
+        }
+        return g.equals(n) ? null : g;
+    }
+
+    private static BigInteger step(BigInteger y, BigInteger c, BigInteger n) {
+        return y.multiply(y).add(c).mod(n);
+    }
+}
+// why is it thread-safe?
+//   RhoFactorizer has no fields, only static final immutable tables (and the shared, immutable PrimeTable);
+//   all working state (factors, x, y, q) is stack confined
+//   the random seeds come from ThreadLocalRandom, so concurrent callers don't contend on a shared Random
+
+// example: Stateless Servlet with a Pluggable Engine
+@ThreadSafe
+public class StatelessFactorizer implements Servlet {
+    private final Factorizer engine;                     // final reference to a stateless engine: still no shared mutable state
+
+    public StatelessFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        BigInteger i = extractFromRequest(req);
+        BigInteger[] factors = engine.factor(i);
+        encodeIntoResponse(resp, factors);
+    }
+}
+// the factorizer servlets added in the later sections (CountingFactorizer with FactorizerMetrics, LockedCachedFactorizer,
+//   ProfiledCachedFactorizer, BoundedCachedFactorizer, EncodedCachedFactorizer, PersistentCachedFactorizer,
+//   AdmittedFactorizer) take the engine the same way; the original examples (CachedFactorizer, VolatileCachedFactorizer,
+//   UnsafeCachingFactorizer, ...) keep calling factor(i), they are about their locking, not about the engine
+
+// example: the Naive Engine, for comparison (trial division by every candidate up to sqrt(n))
+@ThreadSafe
+public class NaiveFactorizer implements Factorizer {
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    public BigInteger[] factor(BigInteger n) {
+        if (n.signum() <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        List<BigInteger> factors = new ArrayList<BigInteger>();
+        for (BigInteger d = TWO; d.multiply(d).compareTo(n) <= 0; d = d.equals(TWO) ? BigInteger.valueOf(3) : d.add(TWO)) {
+            while (n.mod(d).signum() == 0) {
+                factors.add(d);
+                n = n.divide(d);
+            }
+        }
+        if (!n.equals(BigInteger.ONE)) {
+            factors.add(n);                              // what is left after sqrt(n) is prime
+        }
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+}
+
+// example: comparing engines with JMH on 32-, 64- and 128-bit inputs (semiprimes, the worst case for trial division)
+//   Pollard-rho needs about sqrt(p) steps for the smallest factor p, so the smaller factor is capped at 32 bits
+//   (balanced 128-bit semiprimes are out of reach for rho and would need ECM or a quadratic sieve)
+@State(Scope.Benchmark)
+public class FactorizerBenchmark {
+    @Param({ "32", "64", "128" }) int bits;
+    @Param({ "naive", "rho" }) String engineName;
+    Factorizer engine;
+    BigInteger n;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        int smallBits = Math.min(bits / 2, 32);
+        n = BigInteger.probablePrime(smallBits, rnd).multiply(BigInteger.probablePrime(bits - smallBits, rnd));
+        engine = engineName.equals("rho") ? new RhoFactorizer() : new NaiveFactorizer();
+    }
+
+    @Benchmark
+    public BigInteger[] factor() {
+        return engine.factor(n);
+    }
+}
+// note: the naive engine cannot finish the 64- and 128-bit cases in reasonable time, run it with a per-benchmark timeout
+
+// allocation cost of the BigInteger path
+//   most requests fit in a long, but extractFromRequest -> factor(BigInteger) -> BigInteger[] allocates for every number
+//   (every mod, multiply and gcd creates a new BigInteger)
+//   for inputs below 2^63 we can factor with long arithmetic and only build BigIntegers if the response needs them
+//
+// example: a Reusable Primitive Result (confined to one thread, like the ThreadLocal buffers in Thread Confinement)
+@NotThreadSafe
+public final class LongFactors {
+    private final long[] factors = new long[63];         // n < 2^63 has at most 63 prime factors
+    private int size;
+
+    void clear()       { size = 0; }
+    void add(long p)   { factors[size++] = p; }
+    public int size()  { return size; }
+    public long get(int k) { return factors[k]; }
+
+    void sort() {                                        // insertion sort: the array is tiny and this allocates nothing
+        for (int k = 1; k < size; k++) {
+            long p = factors[k];
+            int j = k - 1;
+            for (; j >= 0 && factors[j] > p; j--) {
+                factors[j + 1] = factors[j];
+            }
+            factors[j + 1] = p;
+        }
+    }
+}
+
+// example: Allocation-free Factoring of 63-bit Inputs with Montgomery Multiplication
+@ThreadSafe
+public class LongFactorizer {
+    // deterministic Miller-Rabin witnesses for every 64-bit n
+    private static final long[] WITNESSES = { 2, 325, 9375, 28178, 450775, 9780504, 1795265022 };
+    private static final int BATCH = 128;
+    private static final int TRIAL_BOUND = 100;          // trial division by the odd primes below this bound
+
+    public void factor(long n, LongFactors out) {        // n > 0, result is written into the caller's (thread-confined) holder
+        if (n <= 0) {                                    // 0 has 64 trailing zeros, a negative n has no prime factorization
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        out.clear();
+        int twos = Long.numberOfTrailingZeros(n);
+        for (int k = 0; k < twos; k++) {
+            out.add(2);
+        }
+        n >>>= twos;
+        PrimeTable primes = PrimeSieve.shared().ensure(TRIAL_BOUND);  // the same shared table as RhoFactorizer
+        for (int p = 3; p != -1 && p < TRIAL_BOUND && (long) p * p <= n; p = primes.nextPrime(p)) {
+            while (n % p == 0) {
+                out.add(p);
+                n /= p;
+            }
+        }
+        if (n > 1) {
+            split(n, out);
+        }
+        out.sort();
+    }
+
+    private static void split(long n, LongFactors out) {  // n is odd here
+        if (isPrime(n)) {
+            out.add(n);
+            return;
+        }
+        long d = brent(n);
+        split(d, out);
+        split(n / d, out);
+    }
+
+    // Montgomery arithmetic modulo an odd n < 2^63 with R = 2^64
+    //   a value x is kept as x * R mod n, so a modular multiplication needs two multiplyHigh and no division
+    private static long inverse(long n) {                // n^-1 mod 2^64 by Newton iteration (3 -> 6 -> ... -> 96 correct bits)
+        long inv = n;
+        for (int k = 0; k < 5; k++) {
+            inv *= 2 - n * inv;
+        }
+        return inv;
+    }
+
+    private static long montMul(long a, long b, long n, long nInv) {
+        long hi = Math.multiplyHigh(a, b);               // a, b < n < 2^63, so the signed high word is the unsigned one
+        long m = a * b * nInv;
+        long mnHi = Math.multiplyHigh(m, n) + ((m >> 63) & n);  // unsigned high word of m * n
+        long r = hi - mnHi;                              // the low words cancel by construction of m
+        return r < 0 ? r + n : r;
+    }
+
+    private static long oneMont(long n) {                // R mod n
+        long r = Long.remainderUnsigned(-1L, n) + 1;
+        return r == n ? 0 : r;
+    }
+
+    private static long toMont(long x, long n, long nInv, long r2) {
+        return montMul(x % n, r2, n, nInv);
+    }
+
+    private static long r2(long n) {                     // R^2 mod n, by doubling R mod n another 64 times
+        long r = oneMont(n);
+        for (int k = 0; k < 64; k++) {
+            r <<= 1;
+            if (r < 0 || r >= n) {                       // r < 2n < 2^64, so one unsigned subtraction is enough
+                r -= n;
+            }
+        }
+        return r;
+    }
+
+    static boolean isPrime(long n) {
+        if (n < 2) {
+            return false;
+        }
+        long nInv = inverse(n), r2 = r2(n), one = oneMont(n);
+        long minusOne = n - one;                         // -1 in Montgomery form
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>>= s;
+        witness:
+        for (long a : WITNESSES) {
+            if (a % n == 0) {
+                continue;
+            }
+            long x = powMont(toMont(a, n, nInv, r2), d, one, n, nInv);
+            if (x == one || x == minusOne) {
+                continue;
+            }
+            for (int r = 1; r < s; r++) {
+                x = montMul(x, x, n, nInv);
+                if (x == minusOne) {
+                    continue witness;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static long powMont(long base, long e, long one, long n, long nInv) {
+        long result = one;
+        for (; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                result = montMul(result, base, n, nInv);
+            }
+            base = montMul(base, base, n, nInv);
+        }
+        return result;
+    }
+
+    // Brent's Pollard-rho in the Montgomery domain (the polynomial y^2 + c is simply evaluated on Montgomery residues)
+    static long brent(long n) {
+        long nInv = inverse(n);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (true) {
+            long c = rnd.nextLong(1, n), y = rnd.nextLong(0, n);
+            long x = y, ys = y, q = oneMont(n), g = 1;
+            for (int r = 1; g == 1; r <<= 1) {
+                x = y;
+                for (int i = 0; i < r; i++) {
+                    y = step(y, c, n, nInv);
+                }
+                for (int k = 0; k < r && g == 1; k += BATCH) {
+                    ys = y;
+                    for (int i = 0; i < Math.min(BATCH, r - k); i++) {
+                        y = step(y, c, n, nInv);
+                        q = montMul(q, Math.abs(x - y), n, nInv);
+                    }
+                    g = gcd(q, n);                       // q * R and q have the same gcd with n, since n is odd
+                }
+            }
+            if (g == n) {
+                do {
+                    ys = step(ys, c, n, nInv);
+                    g = gcd(Math.abs(x - ys), n);
+                } while (g == 1);
+            }
+            if (g != n) {
+                return g;
+            }
+        }
+    }
+
+    private static long step(long y, long c, long n, long nInv) {
+        long v = montMul(y, y, n, nInv) + c;
+        return v < 0 || v >= n ? v - n : v;
+    }
+
+    private static long gcd(long a, long b) {            // binary gcd on non-negative longs
+        if (a == 0) {
+            return b;
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a; a = b; b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+}
+
+// example: Stateless Servlet with a Primitive Fast Path
+@ThreadSafe
+public class LongFastPathFactorizer implements Servlet {
+    private static final ThreadLocal<LongFactors> result = new ThreadLocal<LongFactors>() {
+        public LongFactors initialValue() {
+            return new LongFactors();                    // one holder per request thread, reused for every request
+        }
+    };
+    private final LongFactorizer longEngine = new LongFactorizer();
+    private final Factorizer engine;
+
+    public LongFastPathFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        long n = extractLongFromRequest(req);           // parses the digits directly, returns -1 if it doesn't fit in 63 bits
+        if (n > 0) {
+            LongFactors factors = result.get();
+            longEngine.factor(n, factors);
+            encodeIntoResponse(resp, factors);           // writes the longs as decimal digits, no BigInteger needed
+        } else {
+            BigInteger i = extractFromRequest(req);
+            encodeIntoResponse(resp, engine.factor(i));
+        }
+    }
+}
+// why is it still thread-safe?
+//   LongFactorizer is stateless and each LongFactors is confined to one thread by the ThreadLocal
+//   the holder never escapes service: encodeIntoResponse copies the digits out before the next request reuses it
+//
+// example: measuring allocation per request with JMH's GC profiler (-prof gc)
+//   the same 32- and 62-bit semiprimes through both paths; the holder is per-thread state, reused like the ThreadLocal one
+@State(Scope.Thread)
+public class LongFactorizerBenchmark {
+    @Param({ "32", "62" }) int bits;
+    final Factorizer bigEngine = new RhoFactorizer();
+    final LongFactorizer longEngine = new LongFactorizer();
+    final LongFactors holder = new LongFactors();
+    BigInteger big;
+    long n;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        big = BigInteger.probablePrime(bits / 2, rnd).multiply(BigInteger.probablePrime(bits - bits / 2, rnd));
+        n = big.longValueExact();
+    }
+
+    @Benchmark
+    public BigInteger[] bigInteger() {
+        return bigEngine.factor(big);
+    }
+
+    @Benchmark
+    public int primitive() {
+        longEngine.factor(n, holder);
+        return holder.size();                            // returned so JMH does not eliminate the call
+    }
+}
+// the gc.alloc.rate.norm column (bytes allocated per operation) should be ~0 for primitive,
+//   against hundreds of bytes (one BigInteger per mod/multiply/gcd) for bigInteger
@@ -72,3 +72,252 @@ public class LazyInitRace {
 // solution: locking
 
 
+
+// Atomic Variables under Contention
+//   an AtomicLong is a single memory location: at high core counts every incrementAndGet fights for the same cache line
+//   and CachedFactorizer's synchronized getHits()/getCachHitRatio() make a monitoring scrape contend with request traffic
+//   counters that are written often but read rarely don't need a single location:
+//     LongAdder stripes the count over several cells (added lazily under contention) and sums them on read
+//
+// example: Lock-free Latency Histogram (HDR-style buckets: a power of two split into 8 linear sub-buckets)
+@ThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;                    // 8 sub-buckets per power of two: at most 12.5% relative error
+    private static final int SUB = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(nanos, 0)));  // one atomic increment, no lock, no allocation
+    }
+
+    static int indexOf(long v) {
+        if (v < SUB) {
+            return (int) v;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int exp = index / SUB + SUB_BITS - 1;
+        return (1L << exp) | ((long) (index % SUB) << (exp - SUB_BITS));
+    }
+
+    static long percentile(long[] counts, double percentile) {  // lower bound of the bucket holding the percentile, in nanos
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int k = 0; k < counts.length; k++) {
+            seen += counts[k];
+            if (seen >= rank && seen > 0) {
+                return lowerBound(k);
+            }
+        }
+        return 0;
+    }
+
+    long[] copyCounts() {                                     // each bucket is read atomically, the copy as a whole is not
+        long[] copy = new long[counts.length()];
+        for (int k = 0; k < copy.length; k++) {
+            copy[k] = counts.get(k);
+        }
+        return copy;
+    }
+}
+
+// example: Immutable Metrics Snapshot (safe to hand to an exporter thread)
+@Immutable
+public final class MetricsSnapshot {
+    private final long requests;
+    private final long cacheHits;
+    private final long[] hitCounts;                           // hits and misses have very different latencies,
+    private final long[] missCounts;                          //   a merged p99 would only describe the misses
+
+    MetricsSnapshot(long requests, long cacheHits, long[] hitCounts, long[] missCounts) {
+        this.requests = requests;
+        this.cacheHits = cacheHits;
+        this.hitCounts = hitCounts;                           // already private copies, never published elsewhere
+        this.missCounts = missCounts;
+    }
+
+    public long getRequests()  { return requests; }
+    public long getCacheHits() { return cacheHits; }
+    public double getCacheHitRatio() { return requests == 0 ? 0.0 : (double) cacheHits / (double) requests; }
+
+    public long hitLatencyPercentile(double percentile)  { return LatencyHistogram.percentile(hitCounts, percentile); }
+    public long missLatencyPercentile(double percentile) { return LatencyHistogram.percentile(missCounts, percentile); }
+
+    public long latencyPercentile(double percentile) {        // all requests: the two histograms share their buckets
+        long[] all = new long[hitCounts.length];
+        for (int k = 0; k < all.length; k++) {
+            all[k] = hitCounts[k] + missCounts[k];
+        }
+        return LatencyHistogram.percentile(all, percentile);
+    }
+}
+
+// example: Striped Counters plus Histogram per Servlet
+@ThreadSafe
+public class FactorizerMetrics {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+
+    public void recordRequest(boolean cacheHit, long nanos) {
+        requests.increment();
+        if (cacheHit) {
+            cacheHits.increment();
+            hitLatency.record(nanos);
+        } else {
+            missLatency.record(nanos);
+        }
+    }
+
+    public MetricsSnapshot snapshot() {                       // never blocks writers, and writers never block it
+        return new MetricsSnapshot(requests.sum(), cacheHits.sum(), hitLatency.copyCounts(), missLatency.copyCounts());
+    }
+}
+// note: a snapshot is not an atomic cut across all counters (a request may be counted in requests but not yet in latency)
+//   that is acceptable for monitoring, and it is the price of never making request traffic wait for a scrape
+
+@ThreadSafe
+public class CountingFactorizer implements Servlet {
+    private final FactorizerMetrics metrics = new FactorizerMetrics();
+    private final Factorizer engine;
+
+    public CountingFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public MetricsSnapshot getMetrics() { return metrics.snapshot(); }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        long start = System.nanoTime();
+        BigInteger i = extractFromRequest(req);
+        BigInteger[] factors = engine.factor(i);
+        encodeIntoResponse(resp, factors);
+        metrics.recordRequest(false, System.nanoTime() - start);
+    }
+}
+// the same FactorizerMetrics replaces hits/cacheHits in CachedFactorizer:
+//   the counters leave the @GuardedBy("this") state, and getHits()/getCachHitRatio() no longer need to be synchronized
+
+// fixing LazyInitRace without a lock on every read
+//   making getInstance synchronized fixes the check-then-act race, but then every read of ExpensiveObject takes the lock
+//   even though the instance only has to be created once
+//
+// example: Holder Class Idiom (for statics)
+//   the JVM initializes the holder class the first time it is used, and class initialization is already thread-safe
+@ThreadSafe
+public class ExpensiveObjectFactory {
+    private static class ExpensiveObjectHolder {
+        static final ExpensiveObject instance = new ExpensiveObject();
+    }
+
+    public static ExpensiveObject getInstance() {
+        return ExpensiveObjectHolder.instance;     // no synchronization at all once the holder is initialized
+    }
+}
+
+// example: a Reusable Lazy<T> for Instance Fields
+public abstract class Lazy<T> implements Supplier<T> {
+    // Double-checked locking with acquire/release: the factory runs at most once
+    public static <T> Lazy<T> locking(Supplier<? extends T> factory) {
+        return new LockingLazy<T>(factory);
+    }
+
+    // CAS publish: the factory may run more than once under a race, but only one result is ever published
+    //   use it only for idempotent factories (creating a spare instance must be harmless)
+    public static <T> Lazy<T> racy(Supplier<? extends T> factory) {
+        return new RacyLazy<T>(factory);
+    }
+
+    // starts construction in the background, so the first request does not pay the construction latency
+    public Lazy<T> prewarm(Executor exec) {
+        exec.execute(new Runnable() {
+            public void run() {
+                get();
+            }
+        });
+        return this;
+    }
+}
+
+@ThreadSafe
+final class LockingLazy<T> extends Lazy<T> {
+    private static final VarHandle VALUE;
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(LockingLazy.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @GuardedBy("this") private Supplier<? extends T> factory;  // dropped after use so it can be garbage collected
+    private Object value;                                       // written with release, read with acquire
+
+    LockingLazy(Supplier<? extends T> factory) {
+        this.factory = factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Object v = VALUE.getAcquire(this);          // fast path: one acquire load, no lock
+        if (v == null) {
+            synchronized (this) {
+                v = VALUE.getAcquire(this);         // check again: another thread may have won while we waited
+                if (v == null) {
+                    v = factory.get();
+                    VALUE.setRelease(this, v);      // publishes a fully constructed object to the acquire loads
+                    factory = null;
+                }
+            }
+        }
+        return (T) v;
+    }
+}
+
+@ThreadSafe
+final class RacyLazy<T> extends Lazy<T> {
+    private final Supplier<? extends T> factory;
+    private final AtomicReference<T> value = new AtomicReference<T>();
+
+    RacyLazy(Supplier<? extends T> factory) {
+        this.factory = factory;
+    }
+
+    public T get() {
+        T v = value.get();
+        if (v == null) {
+            T created = factory.get();
+            v = value.compareAndSet(null, created) ? created : value.get();  // losers adopt the winner's instance
+        }
+        return v;
+    }
+}
+// why are they correct?
+// 1) LazyInitRace failed because two threads could both act on a stale "instance == null" observation
+//    LockingLazy repeats the check under the lock, RacyLazy lets only one compareAndSet succeed
+// 2) plain double-checked locking is broken because a reader may see the reference before the object's fields;
+//    the release store / acquire load pair (or volatile, or AtomicReference) makes the constructor's writes visible first
+// 3) the factory must not return null, otherwise every call looks uninitialized and runs it again
+
+// example: usage
+private final Lazy<ExpensiveObject> instance = Lazy.locking(new Supplier<ExpensiveObject>() {
+    public ExpensiveObject get() {
+        return new ExpensiveObject();
+    }
+}).prewarm(startupExecutor);
+
+public ExpensiveObject getInstance() {
+    return instance.get();
+}
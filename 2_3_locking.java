@@ -76,3 +76,413 @@ public class LoggingWidget extends Widget {
 }
 // this will cause deadlock if synchronized is NOT reentrant
 //   you cannot acquire the lock held by yourself: lock already held by LoggingWidget, so call to superclass Widget has to wait
+
+// how long do requests wait for a lock?
+//   CachedFactorizer, UnsafeCachingFactorizer, SyncrhonizedInteger and LoggingWidget all guard their state with the
+//   object's intrinsic lock, and nothing tells us how long threads wait on it or hold it
+//
+// 1) intrinsic locks: the JVM already records contended monitor entry as a JFR event (jdk.JavaMonitorEnter),
+//    by default only above 20 ms; lower the threshold to see ordinary contention:
+//      jcmd <pid> JFR.start settings=profile jdk.JavaMonitorEnter#threshold=100us
+//    the event carries the monitor class and the stack trace, but not which @GuardedBy fields the lock protects
+//
+// 2) explicit locks: a wrapper that keeps per-lock statistics, named after the fields it guards
+//
+// example: Lock Wrapper that Records Acquisitions, Wait Time and Hold Time
+//   every ProfiledLock is its own ReentrantLock; locks created for the same fields (e.g. one per CachedFactorizer
+//   instance) share one LockStats, so the statistics are per guarded field set, not per object
+@ThreadSafe
+public class ProfiledLock implements Lock {
+    private static final ConcurrentMap<String, LockStats> registry = new ConcurrentHashMap<String, LockStats>();
+
+    @ThreadSafe
+    static final class LockStats {
+        final String guards;                                // e.g. "CachedFactorizer.lastNumber,lastFactors"
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();        // acquisitions (or timed-out attempts) that had to wait
+        final LatencyHistogram waitNanos = new LatencyHistogram();  // one sample per contended increment
+        final LatencyHistogram holdNanos = new LatencyHistogram();
+
+        LockStats(String guards) {
+            this.guards = guards;
+        }
+
+        void waited(long nanos, LockWaitEvent event) {    // event: begun before and ended after the blocking call
+            contended.increment();
+            waitNanos.record(nanos);
+            event.commitWait(guards, nanos);
+        }
+
+        LockSnapshot snapshot() {
+            return new LockSnapshot(guards, acquisitions.sum(), contended.sum(), waitNanos.copyCounts(), holdNanos.copyCounts());
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LockStats stats;
+    private final int sampleMask;                           // hold time is measured on 1 in (sampleMask + 1) acquisitions
+    @GuardedBy("lock") private long acquiredAt;             // 0 when the current hold is not sampled
+
+    private ProfiledLock(LockStats stats, int sampleEvery) {
+        if (sampleEvery < 1) {                              // 0 or less would silently turn hold-time sampling off
+            throw new IllegalArgumentException("sampleEvery must be positive: " + sampleEvery);
+        }
+        this.stats = stats;
+        this.sampleMask = Integer.highestOneBit(sampleEvery) - 1;
+    }
+
+    public static ProfiledLock forFields(String guards, int sampleEvery) {
+        return new ProfiledLock(registry.computeIfAbsent(guards, LockStats::new), sampleEvery);
+    }
+
+    public void lock() {
+        if (!lock.tryLock()) {                              // fast path: an uncontended acquisition reads no clock
+            LockWaitEvent event = new LockWaitEvent();
+            long start = System.nanoTime();
+            event.begin();                                  // the JFR duration (and its threshold) is the wait itself
+            lock.lock();
+            event.end();
+            stats.waited(System.nanoTime() - start, event);
+        }
+        acquired();
+    }
+
+    private void acquired() {
+        stats.acquisitions.increment();
+        if (lock.getHoldCount() == 1) {                     // only the outermost hold of a reentrant lock is timed
+            acquiredAt = (ThreadLocalRandom.current().nextInt() & sampleMask) == 0 ? System.nanoTime() : 0;
+        }
+    }
+
+    public void unlock() {
+        if (lock.getHoldCount() == 1 && acquiredAt != 0) {
+            stats.holdNanos.record(System.nanoTime() - acquiredAt);
+        }
+        lock.unlock();
+    }
+
+    public void lockInterruptibly() throws InterruptedException {
+        if (!lock.tryLock()) {
+            LockWaitEvent event = new LockWaitEvent();
+            long start = System.nanoTime();
+            event.begin();
+            lock.lockInterruptibly();                       // an interrupted wait throws and is not recorded
+            event.end();
+            stats.waited(System.nanoTime() - start, event);
+        }
+        acquired();
+    }
+
+    public boolean tryLock() {
+        if (lock.tryLock()) {
+            acquired();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (tryLock()) {                                    // same fast path: no wait, no clock read
+            return true;
+        }
+        LockWaitEvent event = new LockWaitEvent();
+        long start = System.nanoTime();
+        event.begin();
+        boolean locked = lock.tryLock(time, unit);
+        event.end();
+        stats.waited(System.nanoTime() - start, event);     // a wait that timed out is contention too
+        if (locked) {
+            acquired();
+        }
+        return locked;
+    }
+
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    public LockSnapshot snapshot() {                        // statistics of every lock guarding the same fields
+        return stats.snapshot();
+    }
+
+    public static List<LockSnapshot> all() {
+        List<LockSnapshot> snapshots = new ArrayList<LockSnapshot>();
+        for (LockStats s : registry.values()) {
+            snapshots.add(s.snapshot());
+        }
+        return snapshots;
+    }
+}
+
+@Immutable
+public final class LockSnapshot {
+    private final String guards;
+    private final long acquisitions;
+    private final long contended;
+    private final long[] waitCounts;                        // private copies from LatencyHistogram.copyCounts
+    private final long[] holdCounts;
+
+    LockSnapshot(String guards, long acquisitions, long contended, long[] waitCounts, long[] holdCounts) {
+        this.guards = guards;
+        this.acquisitions = acquisitions;
+        this.contended = contended;
+        this.waitCounts = waitCounts;
+        this.holdCounts = holdCounts;
+    }
+
+    public String getGuards()       { return guards; }
+    public long getAcquisitions()   { return acquisitions; }
+    public long getContended()      { return contended; }
+    public long waitPercentile(double percentile) { return LatencyHistogram.percentile(waitCounts, percentile); }
+    public long holdPercentile(double percentile) { return LatencyHistogram.percentile(holdCounts, percentile); }
+}
+
+// example: a JFR Event for Long Waits (visible in JDK Mission Control next to jdk.JavaMonitorEnter)
+//   @Threshold is checked against the event's own duration, so the caller must begin() it before the blocking call
+//   and end() it right after; waitNanos repeats that duration as a plain field for exporters
+@Name("factorizer.LockWait")
+@Label("Lock Wait")
+@Threshold("100 us")
+public class LockWaitEvent extends Event {
+    @Label("Guarded fields") String guards;
+    @Label("Wait") @Timespan long waitNanos;
+
+    void commitWait(String guards, long waitNanos) {
+        if (shouldCommit()) {                               // cheap check: false when JFR is off or the wait was short
+            this.guards = guards;
+            this.waitNanos = waitNanos;
+            commit();
+        }
+    }
+}
+
+// example: Attributing CachedFactorizer's Lock to its Guarded Fields
+@ThreadSafe
+public class ProfiledCachedFactorizer implements Servlet {
+    private final Lock lock = ProfiledLock.forFields("CachedFactorizer.lastNumber,lastFactors", 64);
+    @GuardedBy("lock") private BigInteger lastNumber;
+    @GuardedBy("lock") private BigInteger[] lastFactors;
+    private final Factorizer engine;
+
+    public ProfiledCachedFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        BigInteger i = extractFromRequest(req);
+        BigInteger[] factors = null;
+        lock.lock();
+        try {
+            if (i.equals(lastNumber)) {
+                factors = lastFactors.clone();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (factors == null) {
+            factors = engine.factor(i);
+            lock.lock();
+            try {
+                lastNumber = i;
+                lastFactors = factors.clone();
+            } finally {
+                lock.unlock();
+            }
+        }
+        encodeIntoResponse(resp, factors);
+    }
+}
+// overhead:
+//   uncontended acquisition: one tryLock, two LongAdder/histogram increments, and a clock read on 1 in 64 acquisitions
+//   contended acquisition: two clock reads, which are small next to the time spent parked
+// snapshots are immutable, and ProfiledLock.all() reads only the LockStats, so an exporter never blocks any of the locks
+
+// holding a lock during console I/O
+//   LoggingWidget.doSomething calls System.out.println while holding the intrinsic lock,
+//   so the latency of the console (or file) is added to every critical section, and to every thread waiting for it
+//   fix: inside the lock, only hand the message to another thread; the I/O happens on that thread, outside any lock
+//
+// example: Asynchronous Logger on a Lock-free Multi-producer Ring Buffer
+//   producers claim a slot with a CAS, format into the slot's preallocated chars, and publish it
+//   one consumer thread drains published slots in batches and writes them through a FileChannel
+@ThreadSafe
+public class AsyncLogger {
+    public enum OverflowPolicy { DROP, BLOCK }
+
+    // a reusable, preallocated record: formatting into it allocates nothing
+    //   only reachable through log(...), which always publishes the slot it claimed, even if formatting throws
+    @NotThreadSafe
+    private static final class LogRecord {
+        private final char[] chars;
+        private int length;
+        private boolean skip;                           // formatting failed: the consumer frees the slot, writes nothing
+
+        LogRecord(int capacity) { chars = new char[capacity]; }
+
+        LogRecord append(CharSequence s) {
+            for (int k = 0; k < s.length() && length < chars.length; k++) {
+                chars[length++] = s.charAt(k);          // too long messages are truncated, never reallocated
+            }
+            return this;
+        }
+
+        LogRecord append(long v) {               // digits are written directly, no Long.toString
+            if (v < 0) {
+                append("-");
+                if (v == Long.MIN_VALUE) {
+                    return append("9223372036854775808");
+                }
+                v = -v;
+            }
+            int digits = 1;
+            for (long rest = v / 10; rest != 0; rest /= 10) {
+                digits++;
+            }
+            for (int k = length + digits - 1; k >= length; k--) {  // least significant digit first, from the right
+                if (k < chars.length) {                 // like append(CharSequence), truncation keeps the leading digits
+                    chars[k] = (char) ('0' + v % 10);
+                }
+                v /= 10;
+            }
+            length = Math.min(length + digits, chars.length);
+            return this;
+        }
+    }
+
+    private final LogRecord[] slots;
+    private final AtomicLongArray published;             // per slot: sequence + 1 once its record is readable
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();  // next sequence to hand to a producer
+    private volatile long consumed;                      // every sequence below this has been written out
+    private final OverflowPolicy policy;
+    private final LongAdder dropped = new LongAdder();
+    private final FileChannel out;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);  // confined to the consumer thread
+
+    public AsyncLogger(FileChannel out, int size, int recordCapacity, OverflowPolicy policy) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of 2: " + size);
+        }
+        if (recordCapacity + 1 > BATCH_BYTES) {         // a full record plus its newline must fit in an empty batch,
+            throw new IllegalArgumentException(        //   or drain() could never write it and the ring would stall
+                "recordCapacity must be below " + BATCH_BYTES + ": " + recordCapacity);
+        }
+        this.out = out;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.slots = new LogRecord[size];
+        this.published = new AtomicLongArray(size);
+        for (int k = 0; k < size; k++) {
+            slots[k] = new LogRecord(recordCapacity);
+        }
+    }
+
+    public void log(CharSequence message) {
+        long seq = claim();
+        if (seq < 0) {
+            return;                                     // dropped under DROP
+        }
+        boolean formatted = false;
+        try {
+            slots[(int) seq & mask].append(message);
+            formatted = true;
+        } finally {
+            publish(seq, formatted);
+        }
+    }
+
+    public void log(CharSequence prefix, long value, CharSequence suffix) {
+        long seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        boolean formatted = false;
+        try {
+            slots[(int) seq & mask].append(prefix).append(value).append(suffix);
+            formatted = true;
+        } finally {
+            publish(seq, formatted);                    // claim and publish are never split across caller code
+        }
+    }
+
+    // the sequence of a claimed, cleared slot, or -1 if the ring is full under DROP
+    private long claim() {
+        long seq;
+        while (true) {
+            seq = claimed.get();
+            if (seq - consumed >= slots.length) {       // full
+                if (policy == OverflowPolicy.DROP) {
+                    dropped.increment();
+                    return -1;
+                }
+                Thread.onSpinWait();                    // BLOCK: wait for the consumer to free a slot
+                continue;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) {  // the slot is now exclusively ours until we publish it
+                break;
+            }
+        }
+        LogRecord r = slots[(int) seq & mask];
+        r.length = 0;
+        return seq;
+    }
+
+    private void publish(long seq, boolean formatted) {
+        slots[(int) seq & mask].skip = !formatted;      // a failed record still frees its slot, or the consumer would stall
+        published.lazySet((int) seq & mask, seq + 1);   // release: the record's chars are visible before the flag
+    }
+
+    // the consumer loop, run on one dedicated thread
+    public void drain() throws IOException, InterruptedException {
+        long next = consumed;
+        while (!Thread.currentThread().isInterrupted()) {
+            long end = next;
+            while (published.get((int) end & mask) == end + 1) {     // collect every contiguous published record
+                LogRecord r = slots[(int) end & mask];
+                if (!r.skip) {
+                    if (batch.remaining() < r.length + 1) {
+                        break;
+                    }
+                    for (int k = 0; k < r.length; k++) {
+                        char c = r.chars[k];
+                        batch.put(c < 0x80 ? (byte) c : (byte) '?');  // ASCII fast path
+                    }
+                    batch.put((byte) '\n');
+                }
+                end++;
+            }
+            if (end == next) {
+                LockSupport.parkNanos(100000);          // idle: no spinning on the consumer side
+                continue;
+            }
+            batch.flip();                               // may be empty if the batch held only skipped records
+            while (batch.hasRemaining()) {
+                out.write(batch);                       // one write per batch, outside any producer's lock
+            }
+            batch.clear();
+            consumed = end;                             // frees the slots for producers
+            next = end;
+        }
+    }
+
+    public long getDropped() { return dropped.sum(); }
+}
+// why is it safe?
+// 1) a slot belongs to exactly one producer between its successful CAS and publish, and to the consumer between publish
+//    and the volatile write of consumed; ownership is always handed over through an atomic or volatile write
+// 2) producers never block each other: a CAS failure means another producer made progress
+// 3) DROP never waits (the message is counted and lost), BLOCK waits only while the whole ring is full
+// 4) a claimed slot is always published, in a finally: a message that fails to format (e.g. a null argument) is
+//    skipped by the consumer instead of blocking every later record behind it
+
+// (good example: LoggingWidget that does no I/O while holding the lock)
+public class LoggingWidget extends Widget {
+    private static final AsyncLogger log = Loggers.async();  // one shared logger, started with its drain thread
+
+    public synchronized void doSomething() {
+        log.log("LoggingWidget@", System.identityHashCode(this), ": calling doSomething");
+        super.doSomething();
+    }
+}
+// the critical section now contains a CAS and a few char copies instead of a console write
@@ -28,3 +28,181 @@ if (!vector.contains(element)) {
     vector.add(element);
 }
 // synchronizing every method can lead to liveness or performance problems, ex. SynchronizedFactorizer
+
+// making put-if-absent atomic
+//   synchronized (vector) { if (!vector.contains(element)) vector.add(element); } is correct (Vector guards itself with
+//   its intrinsic lock), but contains is an O(n) scan and every writer is serialized behind it
+//   CopyOnWriteArrayList.addIfAbsent is atomic too, but copies the whole array on every successful add
+//   if elements are never removed, membership and order can be kept in two structures that need no common lock:
+//     1) a ConcurrentHashMap decides atomically which thread adds an element (putIfAbsent)
+//     2) the winner appends it to an append-only array at an index it reserved with getAndIncrement
+//
+// example: Concurrent Insertion-ordered Set with an Atomic addIfAbsent
+@ThreadSafe
+public class ConcurrentOrderedSet<E> implements Iterable<E> {
+    private static final int FIRST_CHUNK_BITS = 5;      // chunk k holds 2^(k + 5) elements: 32, 64, 128, ...
+    private final ConcurrentMap<E, Boolean> members = new ConcurrentHashMap<E, Boolean>();
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks
+        = new AtomicReferenceArray<AtomicReferenceArray<E>>(32 - FIRST_CHUNK_BITS);
+
+    public boolean addIfAbsent(E e) {
+        if (members.putIfAbsent(e, Boolean.TRUE) != null) {      // O(1), and only one thread can win for a given element
+            return false;
+        }
+        int index = reserved.getAndIncrement();                    // the winner's position in insertion order
+        chunkFor(index).set(offsetIn(index), e);                   // volatile store: published to snapshot iterators
+        return true;
+    }
+
+    public boolean contains(Object o) {
+        return members.containsKey(o);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    // a snapshot of the elements added so far, in insertion order; never throws ConcurrentModificationException
+    //   an add that is still between its reservation and its store is skipped (its addIfAbsent has not returned yet)
+    public Iterator<E> iterator() {
+        final int end = reserved.get();
+        return new Iterator<E>() {
+            private int index = 0;
+            private E next = advance();
+
+            private E advance() {
+                while (index < end) {
+                    E e = chunkFor(index).get(offsetIn(index));
+                    index++;
+                    if (e != null) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() { return next != null; }
+
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    private static int chunkIndex(int index) {
+        return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_CHUNK_BITS) + 1);
+    }
+
+    private static int offsetIn(int index) {
+        int k = chunkIndex(index);
+        return index - (((1 << k) - 1) << FIRST_CHUNK_BITS);
+    }
+
+    private AtomicReferenceArray<E> chunkFor(int index) {
+        int k = chunkIndex(index);
+        AtomicReferenceArray<E> chunk = chunks.get(k);
+        if (chunk == null) {                                       // first use of this chunk: racing creators agree via CAS
+            chunks.compareAndSet(k, null, new AtomicReferenceArray<E>(1 << (k + FIRST_CHUNK_BITS)));
+            chunk = chunks.get(k);
+        }
+        return chunk;
+    }
+}
+// why is it thread-safe without a common lock?
+//   the invariant "each element appears once" is owned entirely by the ConcurrentHashMap
+//   the invariant "each index holds at most one element" is owned entirely by the AtomicInteger
+//   the two never need to change together, so no single lock has to guard them both
+// limitation: append-only (removing would need a tombstone and would break the simple index reservation)
+
+// example: put-if-absent scalability benchmark (JMH), 1-32 writers racing to fill a fresh set from overlapping key ranges
+//   the writer count is a @Param rather than -t: every invocation starts from an empty set, so the writers must share it
+@State(Scope.Benchmark)
+public class PutIfAbsentBenchmark {
+    static final int ADDS = 4096;                                     // split evenly between the writers
+    static final int DISTINCT = ADDS / 2;                             // every key is offered twice, whatever the writer count
+    @Param({ "vector", "copyOnWrite", "orderedSet" }) String kind;
+    @Param({ "1", "2", "4", "8", "16", "32" }) int writers;
+    Integer[] keys;
+    ExecutorService exec;
+
+    interface PutIfAbsentSet {
+        boolean addIfAbsent(Integer e);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new Integer[DISTINCT];                                 // boxed once, so the adds don't measure allocation
+        for (int i = 0; i < DISTINCT; i++) {
+            keys[i] = i;
+        }
+        exec = Executors.newFixedThreadPool(writers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        exec.shutdownNow();
+    }
+
+    private PutIfAbsentSet newSet() {
+        if (kind.equals("vector")) {
+            final Vector<Integer> vector = new Vector<Integer>();
+            return new PutIfAbsentSet() {
+                public boolean addIfAbsent(Integer e) {
+                    synchronized (vector) {                           // client-side locking on the Vector's own lock
+                        return !vector.contains(e) && vector.add(e);
+                    }
+                }
+            };
+        } else if (kind.equals("copyOnWrite")) {
+            final CopyOnWriteArrayList<Integer> list = new CopyOnWriteArrayList<Integer>();
+            return new PutIfAbsentSet() {
+                public boolean addIfAbsent(Integer e) { return list.addIfAbsent(e); }
+            };
+        } else {
+            final ConcurrentOrderedSet<Integer> set = new ConcurrentOrderedSet<Integer>();
+            return new PutIfAbsentSet() {
+                public boolean addIfAbsent(Integer e) { return set.addIfAbsent(e); }
+            };
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDS)
+    public int fill() throws Exception {
+        final PutIfAbsentSet set = newSet();
+        final int perWriter = ADDS / writers;
+        final CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(writers);
+        for (int w = 0; w < writers; w++) {
+            final int from = w * DISTINCT / writers;                  // each range overlaps the next writer's range
+            results.add(exec.submit(new Callable<Integer>() {
+                public Integer call() throws InterruptedException {
+                    startGate.await();
+                    int added = 0;
+                    for (int i = 0; i < perWriter; i++) {
+                        if (set.addIfAbsent(keys[(from + i) % DISTINCT])) {
+                            added++;
+                        }
+                    }
+                    return added;
+                }
+            }));
+        }
+        startGate.countDown();
+        int added = 0;
+        for (Future<Integer> f : results) {
+            added += f.get();
+        }
+        return added;                                                 // consumed by JMH, and always DISTINCT
+    }
+}
+// expected shape (average time per add): Vector and CopyOnWriteArrayList pay an O(n) scan per add (plus an O(n) copy per
+//   successful add for CopyOnWriteArrayList) and stop improving after a few writers, because every add queues on one lock;
+//   ConcurrentOrderedSet is several times cheaper and keeps improving up to the core count, since writers only meet on a CHM
+//   bin and one getAndIncrement
@@ -78,3 +78,541 @@ public class CachedFactorizer implements Servlet {
 // the above restructuring provides a balance between:
 // 1) simplicity: synchronizing the entire method
 // 2) concurrency: synchronizing the shortest possible code paths
+
+// remaining problem of CachedFactorizer: duplicated work
+//   N concurrent requests for the same uncached number all see a miss, all run factor(i) outside the lock,
+//   and then overwrite lastNumber/lastFactors in turn, i.e. the CPU cost is multiplied by the duplication factor
+//
+// (good example: Coalescing Concurrent Misses with a Table of In-flight Futures, in front of a Cache)
+@ThreadSafe
+public class CoalescingFactorizer implements Servlet {
+    private final BoundedFactorCache cache;              // remembers completed results
+    private final Factorizer engine;
+    private final ConcurrentMap<BigInteger, Future<EncodedFactors>> inFlight
+        = new ConcurrentHashMap<BigInteger, Future<EncodedFactors>>();  // remembers computations still running
+
+    public CoalescingFactorizer(BoundedFactorCache cache, Factorizer engine) {
+        this.cache = cache;
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        BigInteger i = extractFromRequest(req);
+        encodeIntoResponse(resp, compute(i));
+    }
+
+    EncodedFactors compute(final BigInteger i) {
+        EncodedFactors cached = cache.getEncoded(i);
+        if (cached != null) {                               // repeated (not concurrent) requests are plain cache hits
+            return cached;
+        }
+        while (true) {
+            Future<EncodedFactors> f = inFlight.get(i);
+            if (f == null) {
+                FutureTask<EncodedFactors> ft = new FutureTask<EncodedFactors>(new Callable<EncodedFactors>() {
+                    public EncodedFactors call() {
+                        EncodedFactors done = cache.peek(i);  // a previous winner may have finished meanwhile
+                                                              //   (peek: this miss was already counted above)
+                        return done != null ? done : cache.put(i, engine.factor(i));
+                    }
+                });
+                f = inFlight.putIfAbsent(i, ft);            // atomic put-if-absent: only one thread wins the race
+                if (f == null) {
+                    f = ft;
+                    try {
+                        ft.run();                           // the winner computes on its own thread, the others wait on f
+                    } finally {
+                        inFlight.remove(i, ft);             // the result is in the cache now, the table only holds work
+                    }
+                }
+            }
+            try {
+                return f.get();                             // immutable EncodedFactors: shared without copying
+            } catch (CancellationException e) {
+                inFlight.remove(i, f);                      // don't let other callers get stuck on a cancelled computation
+            } catch (ExecutionException e) {
+                inFlight.remove(i, f);                      // a failed computation is not cached either
+                throw launderThrowable(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for factors of " + i, e);
+            }
+        }
+    }
+}
+// why is it good?
+// 1) concurrent callers for the same key wait on the one computation instead of repeating it
+// 2) the table only holds computations in flight, so it never grows beyond the number of distinct keys being factored;
+//    completed results live in the BoundedFactorCache, so later requests for the same key are hits
+// 3) a failed or cancelled Future is removed, so the next caller retries instead of getting the same failure forever
+
+// example: an Engine that Counts its Calls (to measure duplicated work from outside the servlet)
+@ThreadSafe
+public class CallCountingEngine implements Factorizer {
+    private final Factorizer delegate;
+    private final AtomicLong calls = new AtomicLong();
+
+    public CallCountingEngine(Factorizer delegate) {
+        this.delegate = delegate;
+    }
+
+    public BigInteger[] factor(BigInteger n) {
+        calls.incrementAndGet();
+        return delegate.factor(n);
+    }
+
+    public long getCalls() { return calls.get(); }
+}
+
+// example: measuring the duplicated work on a bursty duplicate key
+//   nThreads callers ask for the same (uncached) number at the same time, and we count how many times the engine runs
+//   new LockedCachedFactorizer(engine):      calls ~= nThreads (CachedFactorizer's algorithm, see below)
+//   new CoalescingFactorizer(cache, engine): calls == 1 (for a burst that arrives while the first computation is running)
+//   (CachedFactorizer itself calls the free factor(i), which no engine can count; LockedCachedFactorizer has the same
+//   check-then-act logic and takes its engine through the constructor, like StatelessFactorizer)
+public static long countFactorCalls(final Servlet servlet, CallCountingEngine engine, final BigInteger n, int nThreads)
+        throws InterruptedException {
+    final CountDownLatch startGate = new CountDownLatch(1);
+    final CountDownLatch endGate = new CountDownLatch(nThreads);
+    for (int t = 0; t < nThreads; t++) {
+        new Thread() {
+            public void run() {
+                try {
+                    startGate.await();
+                    servlet.service(requestFor(n), discardingResponse());  // test doubles: a request carrying n,
+                } catch (InterruptedException e) {                          //   and a response that drops its output
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endGate.countDown();
+                }
+            }
+        }.start();
+    }
+    long before = engine.getCalls();
+    startGate.countDown();
+    endGate.await();
+    return engine.getCalls() - before;
+}
+
+// another source of poor responsiveness: one very long computation on one thread
+//   for the occasional 200+ bit input, factor(i) ties up a request thread for seconds while the other cores sit idle
+//   the work decomposes naturally: every divisor found splits the problem into two independent subproblems,
+//   and independent rho walks (different seeds) can race each other for the same number
+//
+// example: Fork/Join Factorization for Very Large Inputs
+@ThreadSafe
+public class ParallelFactorizer implements Factorizer {
+    private final ForkJoinPool pool;
+    private final Factorizer sequential;
+    private final int thresholdBits;                      // inputs below this size stay on the calling thread
+    private final int walks;                              // number of rho walks raced per composite
+
+    public ParallelFactorizer(ForkJoinPool pool, Factorizer sequential, int thresholdBits, int walks) {
+        if (thresholdBits < 1) {
+            throw new IllegalArgumentException("thresholdBits must be positive: " + thresholdBits);
+        }
+        if (walks < 1) {                                  // with no walk, race() would wait forever for a divisor
+            throw new IllegalArgumentException("walks must be positive: " + walks);
+        }
+        this.pool = pool;
+        this.sequential = sequential;
+        this.thresholdBits = thresholdBits;
+        this.walks = walks;
+    }
+
+    public BigInteger[] factor(BigInteger n) {
+        if (n.bitLength() < thresholdBits) {
+            return sequential.factor(n);
+        }
+        if (n.signum() <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        List<BigInteger> factors = new ArrayList<BigInteger>();
+        BigInteger rest = RhoFactorizer.trialDivide(n, factors);  // small factors once, before any walk is raced
+        if (!rest.equals(BigInteger.ONE)) {
+            factors.addAll(pool.invoke(new SplitTask(rest)));
+        }
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+
+    // splits recursively whenever a composite factor is found: one half is forked, the other is computed in place
+    private class SplitTask extends RecursiveTask<List<BigInteger>> {
+        private final BigInteger n;
+
+        SplitTask(BigInteger n) { this.n = n; }
+
+        protected List<BigInteger> compute() {
+            if (n.bitLength() < thresholdBits) {
+                return new ArrayList<BigInteger>(Arrays.asList(sequential.factor(n)));
+            }
+            if (RhoFactorizer.isPrime(n)) {
+                return new ArrayList<BigInteger>(Collections.singletonList(n));
+            }
+            BigInteger d = race(n);
+            SplitTask left = new SplitTask(d);
+            left.fork();
+            List<BigInteger> result = new SplitTask(n.divide(d)).compute();
+            result.addAll(left.join());
+            return result;
+        }
+    }
+
+    // runs independent walks with different seeds; the first divisor wins and the losers stop at their next batch
+    private BigInteger race(final BigInteger n) {
+        final AtomicReference<BigInteger> found = new AtomicReference<BigInteger>();
+        while (found.get() == null) {
+            List<RecursiveAction> racers = new ArrayList<RecursiveAction>(walks);
+            for (int k = 0; k < walks; k++) {
+                racers.add(new RecursiveAction() {
+                    protected void compute() {
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        BigInteger c = new BigInteger(n.bitLength(), rnd).mod(n.subtract(BigInteger.ONE)).add(BigInteger.ONE);
+                        BigInteger y = new BigInteger(n.bitLength(), rnd).mod(n);
+                        BigInteger d = RhoFactorizer.walk(n, c, y, found);
+                        if (d != null) {
+                            found.compareAndSet(null, d);    // only the first winner is recorded
+                        }
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(racers);                // all walks failed (rare): start another round with new seeds
+        }
+        return found.get();
+    }
+}
+// why is it safe?
+// 1) each SplitTask owns its own n and its own result list, so the subproblems share no mutable state
+// 2) the only shared state of a race is the AtomicReference: compareAndSet publishes the winning divisor exactly once,
+//    and the losers poll it every BATCH steps (in both the advance and the gcd phases of a walk),
+//    so cancelling them costs at most one batch of wasted work each
+// 3) small inputs never touch the pool, so the usual requests keep their low latency
+//
+// usage: CachedFactorizer with new ParallelFactorizer(ForkJoinPool.commonPool(), new RhoFactorizer(), 200, nCpus)
+
+// per-request overhead
+//   clients sending thousands of small numbers per second pay the full service() overhead (and, in CachedFactorizer,
+//   two lock acquisitions) for every single number
+//   batching amortizes that overhead: one request, one pass over the cache, one response
+//
+// example: Batch Factorization Servlet
+@ThreadSafe
+public class BatchFactorizer implements Servlet {
+    private final BoundedFactorCache cache;
+    private final Factorizer engine;
+    private final ExecutorService exec;                  // factors the misses of a batch: must NOT run service() itself
+
+    public BatchFactorizer(BoundedFactorCache cache, Factorizer engine, ExecutorService exec) {
+        this.cache = cache;
+        this.engine = engine;
+        this.exec = exec;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        List<BigInteger> numbers = extractBatchFromRequest(req);
+        Set<BigInteger> unique = new LinkedHashSet<BigInteger>(numbers);  // dedupe, keep the first-seen order
+        Map<BigInteger, EncodedFactors> results = new HashMap<BigInteger, EncodedFactors>(unique.size() * 2);
+        List<Callable<BigInteger[]>> misses = new ArrayList<Callable<BigInteger[]>>();
+        final List<BigInteger> missKeys = new ArrayList<BigInteger>();
+        for (final BigInteger i : unique) {              // consult the cache once per unique key
+            EncodedFactors factors = cache.getEncoded(i);  // hits share the cached entry, nothing is decoded
+            if (factors != null) {
+                results.put(i, factors);
+            } else {
+                missKeys.add(i);
+                misses.add(new Callable<BigInteger[]>() {
+                    public BigInteger[] call() {
+                        return engine.factor(i);
+                    }
+                });
+            }
+        }
+        try {
+            List<Future<BigInteger[]>> futures = exec.invokeAll(misses);  // factor the misses in parallel
+            for (int k = 0; k < futures.size(); k++) {
+                BigInteger[] factors = futures.get(k).get();
+                results.put(missKeys.get(k), cache.put(missKeys.get(k), factors));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while factoring a batch", e);
+        } catch (ExecutionException e) {
+            throw launderThrowable(e.getCause());
+        }
+        for (BigInteger i : numbers) {                   // stream the answers in request order, duplicates included
+            encodeIntoResponse(resp, i, results.get(i));
+        }
+    }
+}
+// why is it thread-safe?
+//   numbers, unique, results and the task lists are stack confined to the request thread
+//   the Callables only read their own final key and the stateless engine
+//   the cache and the executor are thread-safe objects shared by all requests
+// why a dedicated executor?
+//   service() blocks in invokeAll until its misses are done; if the same bounded pool also ran service() calls,
+//   every pool thread could end up waiting for factoring tasks queued behind them (thread starvation deadlock)
+//   so give BatchFactorizer its own pool, e.g. Executors.newFixedThreadPool(nCpus), never the container's request pool
+//
+// example: throughput benchmark, numbers factored per second (JMH, run with -t 1, 4, 16 client threads)
+//   the same 10000 numbers (with duplicatePercent repeats) go through
+//   1) perNumber: one service() call per number against LockedCachedFactorizer (CachedFactorizer's algorithm)
+//   2) batched:   BatchFactorizer with batchSize numbers per request (batchSize 1 isolates the cost of batching itself)
+//   the caches are rebuilt for every iteration, so both paths start cold
+@State(Scope.Benchmark)
+public class BatchFactorizerBenchmark {
+    static final int NUMBERS = 10000;
+    @Param({ "0", "20" }) int duplicatePercent;
+    @Param({ "1", "8", "64" }) int batchSize;
+    List<BigInteger> numbers;
+    Servlet perNumber;
+    Servlet batch;
+    ExecutorService factoringPool;
+
+    @Setup(Level.Trial)
+    public void numbers() {
+        Random rnd = new Random(42);
+        numbers = new ArrayList<BigInteger>(NUMBERS);
+        for (int k = 0; k < NUMBERS; k++) {
+            boolean repeat = k > 0 && rnd.nextInt(100) < duplicatePercent;
+            numbers.add(repeat ? numbers.get(rnd.nextInt(k)) : new BigInteger(48, rnd).add(BigInteger.TWO));
+        }
+        factoringPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Setup(Level.Iteration)
+    public void servlets() {
+        perNumber = new LockedCachedFactorizer(new RhoFactorizer());
+        batch = new BatchFactorizer(new BoundedFactorCache(1024), new RhoFactorizer(), factoringPool);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        factoringPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBERS)
+    public void perNumber() {
+        for (BigInteger n : numbers) {
+            perNumber.service(requestFor(n), discardingResponse());      // the test doubles of countFactorCalls
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBERS)
+    public void batched() {
+        for (int from = 0; from < NUMBERS; from += batchSize) {
+            List<BigInteger> chunk = numbers.subList(from, Math.min(from + batchSize, NUMBERS));
+            batch.service(batchRequestFor(chunk), discardingResponse());  // a request carrying the whole chunk
+        }
+    }
+}
+// expected shape: batched wins by the per-request overhead at batchSize 64, and by more with duplicates
+//   (deduplicated within a batch, and remembered by the bounded cache instead of just the last number)
+
+// (good example: CachedFactorizer with an Explicit Lock, so that it does not pin virtual threads)
+//   a virtual thread that blocks while holding an intrinsic lock stays pinned to its carrier thread (JDK 21-23),
+//   a virtual thread that blocks on a ReentrantLock parks and unmounts
+@ThreadSafe
+public class LockedCachedFactorizer implements Servlet {
+    private final Lock lock = new ReentrantLock();
+    @GuardedBy("lock") private BigInteger lastNumber;
+    @GuardedBy("lock") private BigInteger[] lastFactors;
+    private final FactorizerMetrics metrics = new FactorizerMetrics();   // thread-safe on its own, outside the lock
+    private final Factorizer engine;
+
+    public LockedCachedFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        long start = System.nanoTime();
+        BigInteger i = extractFromRequest(req);
+        BigInteger[] factors = null;
+        lock.lock();
+        try {                                            // same check-then-act compound action as CachedFactorizer
+            if (i.equals(lastNumber)) {
+                factors = lastFactors.clone();
+            }
+        } finally {
+            lock.unlock();                               // unlike synchronized, unlocking is our job: always in finally
+        }
+        boolean hit = factors != null;
+        if (!hit) {
+            factors = engine.factor(i);
+            lock.lock();
+            try {
+                lastNumber = i;
+                lastFactors = factors.clone();
+            } finally {
+                lock.unlock();
+            }
+        }
+        encodeIntoResponse(resp, factors);
+        metrics.recordRequest(hit, System.nanoTime() - start);
+    }
+
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+}
+// the hit counters are gone from the lock as well: CachedFactorizer bumped them inside synchronized,
+//   here FactorizerMetrics (LongAdder, from Atomicity) counts them after the lock is released
+
+// overload
+//   when heavy inputs arrive, factor(i) calls pile up: every request thread ends up factoring, the CPUs are oversubscribed,
+//   and latency explodes for every request, including cheap cache hits that only needed a map lookup
+//   fix: admit only as many factoring requests as the server can serve at good latency, queue a few briefly,
+//   and reject the rest quickly (a fast "try again" beats a slow timeout), while cache hits skip the line
+//
+// example: Adaptive Concurrency Limit with a Bounded Deadline Queue
+@ThreadSafe
+public class AdmissionController {
+    private final Lock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private final long targetLatencyNanos;               // latency above which the limit is treated as too high
+    private final int minLimit, maxLimit, maxQueue;
+    @GuardedBy("lock") private double limit;             // current estimate of the concurrency the server can sustain
+    @GuardedBy("lock") private int inFlight;
+    @GuardedBy("lock") private int queued;
+    private final LongAdder shed = new LongAdder();
+
+    public AdmissionController(long targetLatency, TimeUnit unit, int minLimit, int maxLimit, int maxQueue) {
+        if (targetLatency <= 0) {
+            throw new IllegalArgumentException("targetLatency must be positive: " + targetLatency + " " + unit);
+        }
+        if (minLimit < 1 || maxLimit < minLimit) {       // a limit of 0 would admit nothing and never learn otherwise
+            throw new IllegalArgumentException("need 1 <= minLimit <= maxLimit: " + minLimit + ", " + maxLimit);
+        }
+        if (maxQueue < 0) {
+            throw new IllegalArgumentException("maxQueue must not be negative: " + maxQueue);
+        }
+        this.targetLatencyNanos = unit.toNanos(targetLatency);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.limit = minLimit;
+    }
+
+    // true if admitted before the deadline (System.nanoTime() based); false means the request was shed
+    public boolean acquire(long deadlineNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && queued == 0) { // fast path: below the limit and nobody ahead of us
+                inFlight++;
+                return true;
+            }
+            if (queued >= maxQueue) {                    // the queue is full: shed right away
+                shed.increment();
+                return false;
+            }
+            queued++;
+            try {
+                long remaining = deadlineNanos - System.nanoTime();
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {                // waited until the deadline: the client has given up by now
+                        shed.increment();
+                        return false;
+                    }
+                    remaining = permitAvailable.awaitNanos(remaining);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // AIMD: grow the limit by about 1 per limit's worth of good requests, cut it by 10% on a slow one
+    public void release(long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            int before = (int) limit;
+            if (latencyNanos <= targetLatencyNanos) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            } else {
+                limit = Math.max(minLimit, limit * 0.9);
+            }
+            if ((int) limit > before) {
+                permitAvailable.signalAll();             // the freed slot plus the new one: two waiters can proceed
+            } else {
+                permitAvailable.signal();                // at most the freed slot: waking one waiter is enough
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getShed() { return shed.sum(); }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
+// notes:
+// 1) limit, inFlight and queued take part in one invariant (admit only while inFlight < limit), so one lock guards them all;
+//    the critical sections are a few arithmetic operations, never the factoring itself
+// 2) a gradient limiter (limit *= minLatency / sampleLatency, plus a small queue allowance) adapts faster than AIMD
+//    and needs no fixed target, at the price of tracking the minimum latency over a window
+//
+// example: Factorizer with a Priority Lane for Cache Hits
+@ThreadSafe
+public class AdmittedFactorizer implements Servlet {
+    private final BoundedFactorCache cache = new BoundedFactorCache(1024);
+    private final AdmissionController admission = new AdmissionController(50, TimeUnit.MILLISECONDS, 4, 256, 64);
+    private final FactorizerMetrics metrics = new FactorizerMetrics();
+    private final LongAdder rejected = new LongAdder();
+    private final long maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private final Factorizer engine;
+
+    public AdmittedFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        long start = System.nanoTime();
+        BigInteger i = extractFromRequest(req);
+        EncodedFactors factors = cache.getEncoded(i);
+        if (factors != null) {                           // priority lane: a hit never waits behind factoring requests
+            encodeIntoResponse(resp, factors);
+            metrics.recordRequest(true, System.nanoTime() - start);
+            return;
+        }
+        try {
+            if (!admission.acquire(start + maxQueueNanos)) {
+                rejected.increment();
+                sendOverloaded(resp);                    // e.g. HTTP 503 with Retry-After
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();                        // not served either: getRejected() must count it
+            sendOverloaded(resp);
+            return;
+        }
+        long admitted = System.nanoTime();
+        try {
+            factors = cache.put(i, engine.factor(i));
+        } finally {
+            admission.release(System.nanoTime() - admitted);  // service time only: queueing time is not the server's speed
+        }
+        encodeIntoResponse(resp, factors);
+        metrics.recordRequest(false, System.nanoTime() - start);
+    }
+
+    public MetricsSnapshot getMetrics() { return metrics.snapshot(); }   // throughput, and p99 of hits and of misses
+    public long getRejected()           { return rejected.sum(); }
+}
+// measuring it under overload: drive it with an open-loop load generator (arrivals don't wait for responses) at
+//   1x, 2x and 4x the factoring capacity with a mix of cache hits and heavy misses, and report from the snapshots
+//   the served requests per second, p99 latency for hits and misses separately, and the rejected fraction;
+//   without admission control p99 of the hits grows with the overload, with it the hits stay at their unloaded latency
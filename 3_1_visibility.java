@@ -65,6 +65,192 @@ public class SyncrhonizedInteger {
 }
 // note: synchronizing only the setter would not be sufficient: threads calling get would still be able to see stale values
 
+// the cost of SyncrhonizedInteger
+//   every get and set takes the monitor, even though a single int read or write is already atomic:
+//   only visibility is needed here, and a volatile (or release/acquire) access provides it without a lock
+// false sharing
+//   caches move memory in lines (typically 64 bytes, and adjacent-line prefetchers pair them into 128)
+//   if several counters packed into one object are written by different threads, each write invalidates the line
+//   in the other cores' caches, although the threads never touch the same variable
+//
+// example: Cache-line Padded Cells with Explicit VarHandle Access Modes
+//   padding goes in superclasses because HotSpot lays out superclass fields first, but may reorder fields within a class
+//   (@jdk.internal.vm.annotation.Contended does the same, but only for JDK classes or with -XX:-RestrictContended)
+abstract class LhsPadding { long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15; }
+
+abstract class IntCellValue extends LhsPadding { int value; }
+abstract class IntCellPadding extends IntCellValue { long p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31, p32, p33, p34, p35; }
+
+@ThreadSafe
+public final class IntCell extends IntCellPadding {
+    private static final VarHandle VALUE = findVarHandle(IntCellValue.class, "value", int.class);
+
+    public int getPlain()               { return (int) VALUE.get(this); }      // no ordering, no visibility guarantee
+    public void setPlain(int v)         { VALUE.set(this, v); }
+    public int getOpaque()              { return (int) VALUE.getOpaque(this); } // eventually sees other threads' writes
+    public void setOpaque(int v)        { VALUE.setOpaque(this, v); }
+    public int getAcquire()             { return (int) VALUE.getAcquire(this); }// sees everything written before the release
+    public void setRelease(int v)       { VALUE.setRelease(this, v); }
+    public int get()                    { return (int) VALUE.getVolatile(this); }  // same as a volatile field
+    public void set(int v)              { VALUE.setVolatile(this, v); }
+    public int getAndAdd(int delta)     { return (int) VALUE.getAndAdd(this, delta); }
+    public boolean compareAndSet(int expected, int v) { return VALUE.compareAndSet(this, expected, v); }
+}
+
+abstract class LongCellValue extends LhsPadding { long value; }
+abstract class LongCellPadding extends LongCellValue { long p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31, p32, p33, p34, p35; }
+
+@ThreadSafe
+public final class LongCell extends LongCellPadding {
+    private static final VarHandle VALUE = findVarHandle(LongCellValue.class, "value", long.class);
+
+    public long getPlain()              { return (long) VALUE.get(this); }
+    public void setPlain(long v)        { VALUE.set(this, v); }
+    public long getOpaque()             { return (long) VALUE.getOpaque(this); }
+    public void setOpaque(long v)       { VALUE.setOpaque(this, v); }
+    public long getAcquire()            { return (long) VALUE.getAcquire(this); }
+    public void setRelease(long v)      { VALUE.setRelease(this, v); }
+    public long get()                   { return (long) VALUE.getVolatile(this); }
+    public void set(long v)             { VALUE.setVolatile(this, v); }
+    public long getAndAdd(long delta)   { return (long) VALUE.getAndAdd(this, delta); }
+    public boolean compareAndSet(long expected, long v) { return VALUE.compareAndSet(this, expected, v); }
+}
+
+abstract class DoubleCellValue extends LhsPadding { double value; }
+abstract class DoubleCellPadding extends DoubleCellValue { long p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31, p32, p33, p34, p35; }
+
+@ThreadSafe
+public final class DoubleCell extends DoubleCellPadding {
+    private static final VarHandle VALUE = findVarHandle(DoubleCellValue.class, "value", double.class);
+
+    public double getPlain()            { return (double) VALUE.get(this); }
+    public void setPlain(double v)      { VALUE.set(this, v); }
+    public double getOpaque()           { return (double) VALUE.getOpaque(this); }
+    public void setOpaque(double v)     { VALUE.setOpaque(this, v); }
+    public double getAcquire()          { return (double) VALUE.getAcquire(this); }
+    public void setRelease(double v)    { VALUE.setRelease(this, v); }
+    public double get()                 { return (double) VALUE.getVolatile(this); }
+    public void set(double v)           { VALUE.setVolatile(this, v); }
+    public boolean compareAndSet(double expected, double v) { return VALUE.compareAndSet(this, expected, v); }  // compares bits
+}
+
+abstract class RefCellValue<T> extends LhsPadding { T value; }
+abstract class RefCellPadding<T> extends RefCellValue<T> { long p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31, p32, p33, p34, p35; }
+
+@ThreadSafe
+public final class RefCell<T> extends RefCellPadding<T> {
+    private static final VarHandle VALUE = findVarHandle(RefCellValue.class, "value", Object.class);
+
+    @SuppressWarnings("unchecked") public T getPlain()   { return (T) VALUE.get(this); }
+    public void setPlain(T v)                            { VALUE.set(this, v); }
+    @SuppressWarnings("unchecked") public T getOpaque()  { return (T) VALUE.getOpaque(this); }
+    public void setOpaque(T v)                           { VALUE.setOpaque(this, v); }
+    @SuppressWarnings("unchecked") public T getAcquire() { return (T) VALUE.getAcquire(this); }
+    public void setRelease(T v)                          { VALUE.setRelease(this, v); }  // safely publishes v's fields
+    @SuppressWarnings("unchecked") public T get()        { return (T) VALUE.getVolatile(this); }
+    public void set(T v)                                 { VALUE.setVolatile(this, v); }
+    public boolean compareAndSet(T expected, T v)        { return VALUE.compareAndSet(this, expected, v); }
+}
+
+static VarHandle findVarHandle(Class<?> owner, String name, Class<?> type) {
+    try {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup()).findVarHandle(owner, name, type);
+    } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+    }
+}
+
+// example: Stride-padded Array of Counters (one element per 128 bytes)
+@ThreadSafe
+public final class PaddedLongArray {
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int STRIDE = 16;                // 16 longs = 128 bytes between neighbouring elements
+    private final long[] elements;
+    private final int length;
+
+    public PaddedLongArray(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        this.length = length;
+        this.elements = new long[(length + 2) * STRIDE]; // one stride of padding at each end, against the array header
+    }                                                    //   and whatever object is allocated next
+
+    private int slot(int i) {                            // without the check, -1 and length would silently hit the padding
+        return (Objects.checkIndex(i, length) + 1) * STRIDE;
+    }
+
+    public int length()                       { return length; }
+    public long getPlain(int i)               { return (long) ELEMENTS.get(elements, slot(i)); }
+    public void setPlain(int i, long v)       { ELEMENTS.set(elements, slot(i), v); }
+    public long getOpaque(int i)              { return (long) ELEMENTS.getOpaque(elements, slot(i)); }
+    public void setOpaque(int i, long v)      { ELEMENTS.setOpaque(elements, slot(i), v); }
+    public long getAcquire(int i)             { return (long) ELEMENTS.getAcquire(elements, slot(i)); }
+    public void setRelease(int i, long v)     { ELEMENTS.setRelease(elements, slot(i), v); }
+    public long get(int i)                    { return (long) ELEMENTS.getVolatile(elements, slot(i)); }
+    public void set(int i, long v)            { ELEMENTS.setVolatile(elements, slot(i), v); }
+    public long getAndAdd(int i, long delta)  { return (long) ELEMENTS.getAndAdd(elements, slot(i), delta); }
+    public boolean compareAndSet(int i, long expected, long v) { return ELEMENTS.compareAndSet(elements, slot(i), expected, v); }
+}
+// choosing an access mode (weakest first, and cheaper the weaker it is):
+//   plain:           single-threaded phases only, e.g. initialization before the object is published
+//   opaque:          progress/status flags where any recent value will do, no ordering with other variables
+//   acquire/release: hand-off of data (write the data, then setRelease the flag; getAcquire the flag, then read the data)
+//   volatile:        full sequential consistency, what the volatile keyword gives you
+// SyncrhonizedInteger's guarantee (no stale values, no lock-free increments needed) is IntCell.get/set;
+//   for read-modify-write, use getAndAdd/compareAndSet instead of adding a lock back
+
+// example: false-sharing benchmark (JMH @Group, run with -tg 2, 4, 8, 16, 32 and -prof perfnorm)
+//   every thread of the group increments its own counter, so nothing is shared except, in the adjacent layout, cache lines
+//   perfnorm's L1 miss counts per operation show the cache-line transfers that explain the difference
+@State(Scope.Group)
+public class FalseSharingBenchmark {
+    static final int MAX_THREADS = 32;
+    @Param({ "atomicLongArray", "paddedLongArray", "longCells" }) String layout;
+    AtomicLongArray adjacent;                            // 8 counters per 64-byte line
+    PaddedLongArray padded;
+    LongCell[] cells;
+    int kind;                                            // layout resolved once, so the hot path doesn't compare strings
+    final AtomicInteger nextIndex = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        kind = layout.equals("atomicLongArray") ? 0 : layout.equals("paddedLongArray") ? 1 : 2;
+        adjacent = new AtomicLongArray(MAX_THREADS);
+        padded = new PaddedLongArray(MAX_THREADS);
+        cells = new LongCell[MAX_THREADS];
+        for (int i = 0; i < MAX_THREADS; i++) {
+            cells[i] = new LongCell();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int index;                                       // this thread's counter, never touched by another thread
+
+        @Setup
+        public void setup(FalseSharingBenchmark group) {
+            index = Objects.checkIndex(group.nextIndex.getAndIncrement(), MAX_THREADS);
+        }
+    }
+
+    // each counter has a single writer, so a plain read and an opaque write are enough (no lock-prefixed instruction
+    //   that would hide the cost of the line transfers behind its own)
+    @Benchmark
+    @Group("increment")
+    @GroupThreads(2)
+    public void increment(Counter c) {
+        int i = c.index;
+        switch (kind) {
+            case 0:  adjacent.setOpaque(i, adjacent.getPlain(i) + 1); break;
+            case 1:  padded.setOpaque(i, padded.getPlain(i) + 1);     break;
+            default: cells[i].setOpaque(cells[i].getPlain() + 1);     break;
+        }
+    }
+}
+// expected shape: with one thread per core, the padded layouts scale linearly with the thread count; the adjacent layout
+//   stalls as soon as two threads share a line, and perfnorm shows roughly one L1 miss per increment for it
+
 // Rule:
 //   requiring all threads to synchronize on the same lock when accessing a shared mutable variable
 //   to guarantee that values written by one thread are made visible to other threads (otherwise, it might see a stale value)
@@ -116,3 +302,114 @@ while (!asleep) {
 // 1) volatile: approximately that each individual read or write operation on that variable is atomic
 // 2) provide a wider variety of operations atomically, specifically including increment, i.e. i++
 
+
+// waiting for a flag
+//   NoVisibility.ReaderThread spins with Thread.yield() on ready, and the asleep loop polls a volatile flag:
+//   with volatile they are correct, but a spinning waiter burns a core for as long as it waits,
+//   while a waiter that blocks right away (wait/notify, a latch) pays the scheduler's wake-up latency (tens of microseconds)
+//   the usual compromise: spin briefly (fast hand-offs), then yield, then park (long waits), and learn how long to spin
+//
+// example: Adaptive Spin-then-park Event (reusable: every signal starts a new generation)
+@ThreadSafe
+public class SpinParkEvent {
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentLinkedQueue<Thread> parked = new ConcurrentLinkedQueue<Thread>();
+    private final int minSpins, maxSpins, yields;
+    private volatile int spins;                          // current spin budget, tuned from observed waits (a racy hint)
+
+    public SpinParkEvent(int minSpins, int maxSpins, int yields) {
+        this.minSpins = minSpins;
+        this.maxSpins = maxSpins;
+        this.yields = yields;
+        this.spins = minSpins;
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    // one-shot use: signal() once, waiters call await(0)
+    public void signal() {
+        generation.incrementAndGet();                    // volatile write: everything written before it is visible to waiters
+        Thread t;
+        while ((t = parked.poll()) != null) {
+            LockSupport.unpark(t);                       // only parked waiters cost anything here
+        }
+    }
+
+    // waits until a signal after the given generation; returns the new generation
+    public long await(long seen) throws InterruptedException {
+        long g;
+        int budget = spins;
+        for (int k = 0; k < budget; k++) {               // phase 1: spin (sub-microsecond wake-up, costs a core)
+            if ((g = generation.get()) != seen) {
+                adapt(true, k, budget);
+                return g;
+            }
+            Thread.onSpinWait();
+        }
+        for (int k = 0; k < yields; k++) {               // phase 2: yield (lets other threads run on this core)
+            if ((g = generation.get()) != seen) {
+                adapt(false, budget, budget);
+                return g;
+            }
+            Thread.yield();
+        }
+        Thread me = Thread.currentThread();              // phase 3: park (no CPU, scheduler wake-up latency)
+        parked.add(me);
+        try {
+            while ((g = generation.get()) == seen) {     // re-checked after enqueueing: a signal cannot be missed
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            parked.remove(me);
+        }
+        adapt(false, budget, budget);
+        return g;
+    }
+
+    // spin longer while spinning pays off (waits ended inside the budget), shrink it while waits outlast it
+    private void adapt(boolean endedWhileSpinning, int used, int budget) {
+        if (endedWhileSpinning) {
+            if (used > budget / 2 && budget < maxSpins) {
+                spins = Math.min(maxSpins, budget * 2);  // the signal came late in the budget: give it more room
+            }
+        } else if (budget > minSpins) {
+            spins = Math.max(minSpins, budget / 2);      // spinning was wasted: back off towards parking sooner
+        }
+    }
+}
+// why is it correct?
+//   the generation counter is the only condition: a waiter returns only after observing a new generation with a volatile
+//   read, so it sees everything the signaller wrote before signal(), just like a read of a volatile ready flag
+//   a waiter about to park enqueues itself before re-checking, and signal() increments before dequeuing,
+//   so either the waiter sees the new generation or signal() sees the waiter (and unpark before park is not lost)
+
+// (good example: NoVisibility with an Event instead of a yield loop)
+public class EventVisibility {
+    private static final SpinParkEvent ready = new SpinParkEvent(64, 16384, 8);
+    private static int number;                           // written before signal(), read after await(): no stale value
+
+    private static class ReaderThread extends Thread {
+        public void run() {
+            try {
+                ready.await(0);
+                System.out.println(number);              // always 42
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        new ReaderThread().start();
+        number = 42;
+        ready.signal();
+    }
+}
+// measuring it: a ping-pong between two threads (each signals the other's event) reports the wake-up latency percentiles
+//   (HdrHistogram or the LatencyHistogram from Atomicity); with the signal arriving within the spin budget the wake-up
+//   stays in the sub-microsecond range, and with long waits the waiter ends up parked, so its CPU time stays near zero
@@ -55,6 +55,87 @@ public int loadTheArk(Collection<Animal> candidates) {
 // there is exactly one reference, i.e. animals, to the TreeSet, held in a local variable and therefore confined to the executing thread
 // don't let animals escape
 
+// scaling loadTheArk to multi-million candidate sets
+//   the TreeSet costs O(n log n) on one core and one tree node per candidate
+//   observation: SpeciesGenderComparator orders by species first, so pairs never cross species boundaries,
+//     and each species can be sorted and paired independently, each partition stack-confined to the task that owns it
+//
+// example: Parallel Pairing by Species Partition
+public int loadTheArkInParallel(Collection<Animal> candidates) {
+    Map<Species, List<Animal>> bySpecies = candidates.parallelStream()
+        .collect(Collectors.groupingBy(Animal::getSpecies));  // per-task maps, merged at the end: no shared lists
+    List<List<AnimalPair>> pairsBySpecies = bySpecies.values().parallelStream()
+        .map(partition -> pairPartition(partition.toArray(new Animal[partition.size()])))
+        .collect(Collectors.toList());
+    int numPairs = 0;
+    for (List<AnimalPair> pairs : pairsBySpecies) {      // back on the calling thread: ark is never touched concurrently
+        for (AnimalPair pair : pairs) {
+            ark.load(pair);
+            ++numPairs;
+        }
+    }
+    return numPairs;
+}
+
+private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+private List<AnimalPair> pairPartition(Animal[] animals) {  // animals and pairs are confined to the task for this partition
+    Comparator<Animal> order = new SpeciesGenderComparator();
+    if (animals.length >= PARALLEL_SORT_THRESHOLD) {
+        Arrays.parallelSort(animals, order);             // one huge species: split its sort over the pool as well
+    } else {
+        Arrays.sort(animals, order);                     // array sort: no tree nodes
+    }
+    List<AnimalPair> pairs = new ArrayList<AnimalPair>();
+    Animal candidate = null;
+    Animal previous = null;
+    for (Animal a : animals) {
+        if (previous != null && order.compare(previous, a) == 0) {
+            continue;                                    // TreeSet semantics: equal (same species and gender) animals collapse
+        }
+        previous = a;
+        if (candidate == null || !candidate.isPotentialMate(a)) {
+            candidate = a;
+        } else {
+            pairs.add(new AnimalPair(candidate, a));     // collected, not loaded: the ark belongs to the calling thread
+            candidate = null;
+        }
+    }
+    return pairs;
+}
+// note: Arrays.sort and Arrays.parallelSort are stable for objects, and groupingBy keeps encounter order within a
+//   species, so the first animal of each species/gender is the one kept, like TreeSet.addAll ignores later equal elements
+// why groupingBy and not groupingByConcurrent?
+//   groupingByConcurrent shares one list per species between all tasks, and toList() into it locks that list per element;
+//   with few species and millions of candidates every worker would contend on the same handful of monitors
+
+// example: Streaming Pairing without Materializing the Candidates
+//   after the TreeSet collapses equal animals, each species holds at most one animal per gender,
+//   so a species yields a pair exactly when both genders have been seen: we only need to remember one waiting animal
+public int loadTheArk(Iterator<Animal> candidates) {
+    Map<Species, Animal> waiting = new HashMap<Species, Animal>();  // confined to this method, at most one entry per species
+    Set<Species> paired = new HashSet<Species>();
+    int numPairs = 0;
+    while (candidates.hasNext()) {
+        Animal a = candidates.next();
+        if (paired.contains(a.getSpecies())) {
+            continue;
+        }
+        Animal mate = waiting.get(a.getSpecies());
+        if (mate == null) {
+            waiting.put(a.getSpecies(), a);
+        } else if (mate.isPotentialMate(a)) {
+            waiting.remove(a.getSpecies());
+            paired.add(a.getSpecies());
+            ark.load(new AnimalPair(mate, a));
+            ++numPairs;
+        }                                                // same gender as the waiting one: ignored, as in the TreeSet
+    }
+    return numPairs;
+}
+// memory is proportional to the number of species, not to the number of candidates,
+//   and a Spliterator source can be consumed the same way with forEachRemaining
+
 // ThreadLocal
 //   Thread-Local provides getter and setter methods that maintain a separate copy of the value for each thread that uses it
 //   so a get method should return the most recent value passed to set method from the "currently executing thread"
@@ -76,3 +157,276 @@ public static Connection getConnection() {
 // Conceptually, ThreadLocal<T> holds a Map<Thread,T> that stores the thread-specific values
 //   thread-specific values are stored in the Thread object itself
 //   when the thread terminates, thread-specific values can be garbage collected
+
+// problem of one connection per thread
+//   with large thread pools (or virtual threads, one per request) connectionHolder opens thousands of connections
+//   that sit idle most of the time, and every new thread pays for DriverManager.getConnection on its first request
+//   a bounded pool gives the same confinement (a connection is used by one thread at a time) with far fewer connections
+//
+// example: Bounded Connection Pool with a Thread-affinity Fast Path
+@ThreadSafe
+public class ConnectionPool {
+    private static class PooledConnection {
+        final Connection connection;
+        final AtomicBoolean inUse = new AtomicBoolean(true);   // the creating thread owns it first
+        final AtomicBoolean queued = new AtomicBoolean();      // keeps a connection in the idle queue at most once
+        volatile long lastReleased = System.nanoTime();
+
+        PooledConnection(Connection connection) { this.connection = connection; }
+    }
+
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long validateAfterNanos;                    // idle connections older than this are validated on checkout
+    private final Semaphore permits;                          // fair: waiters get permits in arrival order
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentLinkedQueue<PooledConnection> idle = new ConcurrentLinkedQueue<PooledConnection>();
+    private final ConcurrentMap<Connection, PooledConnection> all = new ConcurrentHashMap<Connection, PooledConnection>();
+    private final ThreadLocal<PooledConnection> lastUsed = new ThreadLocal<PooledConnection>();
+
+    public ConnectionPool(final String url, int maxSize, long validateAfter, TimeUnit unit) {
+        this(new ConnectionFactory() {
+            public Connection open() throws SQLException {
+                return DriverManager.getConnection(url);
+            }
+        }, maxSize, validateAfter, unit);
+    }
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long validateAfter, TimeUnit unit) {
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.validateAfterNanos = unit.toNanos(validateAfter);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public Connection getConnection(long timeout, TimeUnit unit) throws SQLException, InterruptedException {
+        if (!permits.tryAcquire(timeout, unit)) {             // bounded wait: fails instead of queueing forever
+            throw new SQLTimeoutException("no connection available within " + timeout + " " + unit);
+        }
+        try {
+            PooledConnection p = lastUsed.get();              // fast path: reuse the connection this thread used last
+            if (p == null || !p.inUse.compareAndSet(false, true) || !validate(p)) {
+                p = takeIdleOrCreate();
+            }
+            lastUsed.set(p);
+            return lease(p);
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // the caller gets a proxy, never the physical connection: close() returns it to the pool (once), and any other
+    //   call after close() fails instead of using a connection that another thread may already hold
+    private Connection lease(final PooledConnection p) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("hashCode")) {       // Object methods belong to the lease, not to the physical
+                        return System.identityHashCode(proxy);  //   connection: two leases are never equal,
+                    }                                    //   and they still work after close()
+                    if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (name.equals("toString")) {
+                        return "lease of " + p.connection + (closed.get() ? " (closed)" : "");
+                    }
+                    if (name.equals("close")) {
+                        if (closed.compareAndSet(false, true)) {  // a second close() is a no-op, not a second permit
+                            release(p);
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return closed.get();
+                    }
+                    if (closed.get()) {
+                        throw new SQLException("connection already returned to the pool");
+                    }
+                    try {
+                        return method.invoke(p.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+    }
+
+    private void release(PooledConnection p) {
+        p.lastReleased = System.nanoTime();
+        if (!p.inUse.compareAndSet(true, false)) {
+            throw new IllegalStateException("connection released twice");
+        }
+        if (p.queued.compareAndSet(false, true)) {
+            idle.offer(p);
+        }
+        permits.release();
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        while (true) {
+            PooledConnection p;
+            while ((p = idle.poll()) != null) {
+                p.queued.set(false);
+                if (p.inUse.compareAndSet(false, true) && validate(p)) {  // may already be claimed by its affinity thread
+                    return p;
+                }
+            }
+            if (total.incrementAndGet() <= maxSize) {
+                try {
+                    PooledConnection created = new PooledConnection(factory.open());
+                    all.put(created.connection, created);
+                    return created;
+                } catch (SQLException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+            }
+            total.decrementAndGet();                          // a connection is being released right now: look again
+            Thread.yield();
+        }
+    }
+
+    // called with p claimed; a broken connection is closed and forgotten, so the caller creates a replacement
+    private boolean validate(PooledConnection p) {
+        if (System.nanoTime() - p.lastReleased < validateAfterNanos) {
+            return true;
+        }
+        try {
+            if (p.connection.isValid(1)) {
+                return true;
+            }
+        } catch (SQLException ignored) {
+        }
+        discard(p);
+        return false;
+    }
+
+    // eviction: run periodically (e.g. from a ScheduledExecutorService) to close connections idle for too long
+    public void evictIdle(long maxIdle, TimeUnit unit) {
+        long now = System.nanoTime();
+        for (PooledConnection p : all.values()) {
+            if (now - p.lastReleased > unit.toNanos(maxIdle) && p.inUse.compareAndSet(false, true)) {
+                discard(p);                                   // claimed first, so no thread can be handed it meanwhile
+            }
+        }
+    }
+
+    private void discard(PooledConnection p) {
+        all.remove(p.connection);
+        idle.remove(p);
+        total.decrementAndGet();
+        try {
+            p.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
+// how is thread confinement enforced?
+//   a connection is handed out only after a successful inUse.compareAndSet(false, true), so at most one thread holds it
+//   until release; the ThreadLocal only remembers a candidate, it no longer owns the connection
+// why lock-light?
+//   the uncontended path is a semaphore permit plus one CAS on the thread's last connection; waiting only happens
+//   when all maxSize connections are in use, and then the fair semaphore serves waiters in order with a timeout
+
+// example: Using a Bounded Pool from the Same Entry Point
+private static final ConnectionPool pool = new ConnectionPool(DB_URL, 32, 30, TimeUnit.SECONDS);
+
+public static Connection getConnection() throws SQLException, InterruptedException {
+    return pool.getConnection(5, TimeUnit.SECONDS);
+}
+// the contract changes: with connectionHolder a thread kept its connection forever,
+//   with the pool every getConnection() must be closed, or the pool runs out after 32 checkouts
+try (Connection conn = getConnection()) {
+    // ... use conn for this request only ...
+}                                                        // close() returns it to the pool, it does not close the socket
+
+// example: Checking the Pool against an In-memory Fake Connection
+//   a fake that records which thread is using it; two threads inside the same connection means confinement broke
+static Connection fakeConnection(final AtomicInteger opened) {
+    opened.incrementAndGet();
+    final AtomicReference<Thread> user = new AtomicReference<Thread>();
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                if (method.getName().equals("hashCode")) {       // the pool keys its bookkeeping map by connection
+                    return System.identityHashCode(proxy);
+                }
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (method.getName().equals("isValid")) {
+                    return true;
+                }
+                if (method.getName().equals("prepareStatement")) {   // "use" the connection for a moment
+                    if (!user.compareAndSet(null, Thread.currentThread())) {
+                        throw new AssertionError("connection used by two threads at once");
+                    }
+                    Thread.yield();
+                    user.set(null);
+                }
+                return null;
+            }
+        });
+}
+
+public static void checkPool(int nThreads, final int iterations) throws Exception {
+    final AtomicInteger opened = new AtomicInteger();
+    final ConnectionPool pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+        public Connection open() {
+            return fakeConnection(opened);
+        }
+    }, 8, 1, TimeUnit.SECONDS);
+    ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (int t = 0; t < nThreads; t++) {
+        results.add(exec.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                for (int k = 0; k < iterations; k++) {
+                    Connection conn = pool.getConnection(5, TimeUnit.SECONDS);
+                    conn.prepareStatement("select 1");
+                    conn.close();
+                    conn.close();                        // double close must not add a permit
+                }
+                return null;
+            }
+        }));
+    }
+    try {
+        for (Future<?> f : results) {
+            f.get();                                     // rethrows the AssertionError from a fake, if any
+        }
+    } finally {
+        exec.shutdownNow();
+    }
+    if (opened.get() > 8) {
+        throw new AssertionError("opened " + opened.get() + " connections, the bound is 8");
+    }
+}
+
+// example: throughput benchmark (JMH, run with -t 1, 4, 16, 64), checkouts per second against the same fakes
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+    ConnectionPool pool;
+
+    @Setup
+    public void setup() {
+        final AtomicInteger opened = new AtomicInteger();
+        pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+            public Connection open() {
+                return fakeConnection(opened);
+            }
+        }, 32, 1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void checkoutAndClose() throws Exception {
+        pool.getConnection(5, TimeUnit.SECONDS).close();
+    }
+}
@@ -27,6 +27,183 @@ public final class ThreeStooges {
         return stooges.contains(name);
     }
 }
+// ThreeStooges is immutable, but the HashSet underneath is still a general-purpose mutable structure:
+//   a lookup hashes the name, follows a pointer to a Node, then a pointer to the String, and the set carries a Node per element
+// since the contents never change after construction, all of that layout work can be done once, in a builder
+//
+// example: Frozen String Set with a Minimal Perfect Hash (hash-and-displace)
+//   n keys go into exactly n slots; a per-bucket seed is searched at build time so that no two keys share a slot,
+//   then a lookup is two hashes and one probe into flat arrays (no Nodes, no per-element objects)
+@Immutable
+public final class FrozenStringSet {
+    private final int[] seeds;                   // per bucket: the seed that places all of its keys into free slots
+    private final char[] chars;                  // all keys, concatenated in slot order
+    private final int[] offsets;                 // key in slot k is chars[offsets[k] .. offsets[k + 1])
+
+    private FrozenStringSet(int[] seeds, char[] chars, int[] offsets) {
+        this.seeds = seeds;
+        this.chars = chars;
+        this.offsets = offsets;
+    }
+
+    public boolean contains(String key) {
+        int slots = offsets.length - 1;
+        if (slots == 0) {
+            return false;
+        }
+        int slot = index(hash(key, seeds[index(hash(key, 0), seeds.length)]), slots);
+        int start = offsets[slot], length = offsets[slot + 1] - start;
+        if (length != key.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (chars[start + k] != key.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(String key, int seed) {      // seeded FNV-1a over the chars, finished with a murmur-style mix
+        int h = 0x811c9dc5 ^ seed;
+        for (int k = 0; k < key.length(); k++) {
+            h = (h ^ key.charAt(k)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+
+    static int index(int hash, int size) {
+        return (int) (((hash & 0xffffffffL) * size) >>> 32);   // multiply-shift instead of %: no division
+    }
+
+    public static FrozenStringSet of(Collection<String> keys) {
+        String[] unique = new LinkedHashSet<String>(keys).toArray(new String[0]);
+        int n = unique.length;
+        int buckets = Math.max(1, (n + 1) / 2);  // about 2 keys per bucket keeps the seed search short
+        List<List<String>> byBucket = new ArrayList<List<String>>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            byBucket.add(new ArrayList<String>());
+        }
+        for (String key : unique) {
+            byBucket.get(index(hash(key, 0), buckets)).add(key);
+        }
+        Integer[] order = new Integer[buckets];  // place the largest buckets first, while most slots are still free
+        for (int b = 0; b < buckets; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (x, y) -> byBucket.get(y).size() - byBucket.get(x).size());
+
+        int[] seeds = new int[buckets];
+        String[] slots = new String[n];
+        int[] tried = new int[n];
+        for (int b : order) {
+            List<String> bucket = byBucket.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            for (int seed = 1; ; seed++) {
+                if (fits(bucket, seed, slots, tried)) {
+                    for (String key : bucket) {
+                        slots[index(hash(key, seed), n)] = key;
+                    }
+                    seeds[b] = seed;
+                    break;
+                }
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int k = 0; k < n; k++) {
+            offsets[k + 1] = offsets[k] + slots[k].length();
+        }
+        char[] chars = new char[offsets[n]];
+        for (int k = 0; k < n; k++) {
+            slots[k].getChars(0, slots[k].length(), chars, offsets[k]);
+        }
+        return new FrozenStringSet(seeds, chars, offsets);
+    }
+
+    // true if every key of the bucket lands on a free slot and no two of them land on the same one
+    private static boolean fits(List<String> bucket, int seed, String[] slots, int[] tried) {
+        for (String key : bucket) {
+            int slot = index(hash(key, seed), slots.length);
+            if (slots[slot] != null || tried[slot] == seed) {
+                return false;
+            }
+            tried[slot] = seed;                  // marks the slot as taken by this attempt, without clearing an array per seed
+        }
+        return true;
+    }
+}
+// why is it immutable (and therefore thread-safe)?
+//   all fields are final, the arrays are created in the builder and never escape or change after construction,
+//   so FrozenStringSet can be shared freely, just like ThreeStooges
+//
+// example: usage
+@Immutable
+public final class FrozenStooges {
+    private final FrozenStringSet stooges = FrozenStringSet.of(Arrays.asList("Moe", "Larry", "Curly"));
+
+    public boolean isStooge(String name) {
+        return stooges.contains(name);
+    }
+}
+
+// example: lookup latency benchmark (JMH), a mix of present and absent names (the hit rate matters for HashSet)
+@State(Scope.Benchmark)
+public class FrozenStringSetBenchmark {
+    @Param({ "hashSet", "setOf", "frozen" }) String impl;
+    @Param({ "3", "1000", "100000" }) int size;
+    @Param({ "50" }) int hitPercent;
+    Predicate<String> set;                               // one implementation per trial, so the call stays monomorphic
+    String[] probes;
+    int next;
+
+    @Setup
+    public void setup() {
+        List<String> keys = keys(size);
+        if (impl.equals("hashSet")) {
+            set = new HashSet<String>(keys)::contains;
+        } else if (impl.equals("setOf")) {
+            set = Set.copyOf(keys)::contains;
+        } else {
+            set = FrozenStringSet.of(keys)::contains;
+        }
+        Random rnd = new Random(42);
+        probes = new String[1024];
+        for (int k = 0; k < probes.length; k++) {        // fresh String objects: no identity shortcut in equals
+            probes[k] = new String(rnd.nextInt(100) < hitPercent ? keys.get(rnd.nextInt(size)) : "absent-" + k);
+        }
+    }
+
+    static List<String> keys(int size) {
+        List<String> keys = new ArrayList<String>(size);
+        for (int k = 0; k < size; k++) {
+            keys.add("stooge-" + k);
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.test(probes[next++ & (probes.length - 1)]);
+    }
+
+    // footprint (not a JMH measurement): JOL's retained size of each representation, in bytes
+    //   HashSet: a Node per key plus the table; FrozenStringSet: one char per key char plus 1.5 ints per key
+    public static void printFootprints() {
+        for (int size : new int[] { 3, 1000, 100000 }) {
+            List<String> keys = keys(size);
+            long strings = GraphLayout.parseInstance(keys.toArray()).totalSize();  // the keys themselves, to subtract
+            System.out.printf("%6d keys: HashSet %d, Set.of %d, FrozenStringSet %d%n", size,
+                GraphLayout.parseInstance(new HashSet<String>(keys)).totalSize() - strings,
+                GraphLayout.parseInstance(Set.copyOf(keys)).totalSize() - strings,
+                GraphLayout.parseInstance(FrozenStringSet.of(keys)).totalSize());
+        }
+    }
+}
 
 // Final Fields
 //
@@ -95,4 +272,234 @@ public class OneValueCache {
 // a volatile object can use a OneValueCache (immutable holder object) to store the cached number and factors
 // 1) when a thread sets the volatile cache field to reference a new OneValueCache, the new cached data becomes immediately visible to other threads
 // 2) volatile reference is used to ensure its timely visibility, allows the volatile object to be thread-safe even though it does no explicit locking
+//
+// limitation of OneValueCache:
+//   it remembers only the last (lastNumber, lastFactors) pair, so under mixed traffic the hit rate is close to zero
+//   and every miss allocates a new holder and writes the shared volatile cache field
+
+// example: Bounded Multi-entry Cache of Immutable Entries
+@ThreadSafe
+public class BoundedFactorCache {
+    private static final int MAX_FREQUENCY = 3;
+
+    private final int capacity;
+    private final ConcurrentMap<BigInteger, Entry> entries;
+    @GuardedBy("this") private final BigInteger[] clock;  // ring of cached keys swept by the eviction hand
+    @GuardedBy("this") private int hand;
+    @GuardedBy("this") private int size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // the factors are immutable, only the frequency is mutated and it is a hint for eviction (a lost update is harmless)
+    private static final class Entry {
+        final EncodedFactors factors;                       // stored once, already in the response's wire format
+        volatile int frequency;
+
+        Entry(EncodedFactors factors) {
+            this.factors = factors;
+        }
+    }
+
+    public BoundedFactorCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<BigInteger, Entry>(capacity * 4 / 3 + 1);
+        this.clock = new BigInteger[capacity];
+    }
+
+    public BigInteger[] getFactors(BigInteger i) {
+        EncodedFactors encoded = getEncoded(i);
+        return encoded == null ? null : encoded.decode();   // a fresh array per call, like the defensive copy before
+    }
+
+    public EncodedFactors getEncoded(BigInteger i) {        // lock-free read: one ConcurrentHashMap lookup, no copy
+        Entry e = entries.get(i);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (e.frequency < MAX_FREQUENCY) {
+            e.frequency++;                                  // racy increment, good enough for a frequency hint
+        }
+        return e.factors;                                   // immutable, so it can be shared without copying
+    }
+
+    EncodedFactors peek(BigInteger i) {                     // a second probe for the same request: counts nothing
+        Entry e = entries.get(i);
+        return e == null ? null : e.factors;
+    }
+
+    public EncodedFactors put(BigInteger i, BigInteger[] factors) {
+        Entry existing = entries.get(i);
+        return existing != null ? existing.factors : put(i, EncodedFactors.encode(factors));  // encoded outside the lock
+    }
+
+    // stores factors that are already encoded, e.g. a hit read back from a MappedFactorCache
+    public synchronized EncodedFactors put(BigInteger i, EncodedFactors factors) {  // only misses take the lock
+        Entry existing = entries.get(i);
+        if (existing != null) {
+            return existing.factors;
+        }
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = evict();
+        }
+        clock[slot] = i;
+        Entry e = new Entry(factors);
+        entries.put(i, e);                                  // the Entry is safely published through the ConcurrentMap
+        return e.factors;
+    }
+
+    // CLOCK sweep: frequently used entries get a second (up to MAX_FREQUENCY) chance before being evicted
+    @GuardedBy("this")
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % capacity;
+            Entry e = entries.get(clock[slot]);
+            if (e.frequency > 0) {
+                e.frequency--;
+            } else {
+                entries.remove(clock[slot]);
+                evictions.increment();
+                return slot;
+            }
+        }
+    }
+
+    public long getHits()      { return hits.sum(); }
+    public long getMisses()    { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+}
+// why is it good?
+// 1) readers never lock: a hit is a ConcurrentHashMap get (getFactors adds a decoded copy, getEncoded shares the entry)
+// 2) cached values are still immutable (EncodedFactors, encoded once on put and never written again), so a reference
+//    obtained by one thread can never be seen in an inconsistent state by another
+// 3) only the (already expensive) miss path is serialized, and the cache never grows beyond capacity
+// 4) hit/miss/eviction counters are LongAdders, so counting does not turn into a hot shared cache line
+
+// copying on every request
+//   OneValueCache copies the factors on construction and on every getFactors, CachedFactorizer clones them twice,
+//   and encodeIntoResponse then serializes the BigInteger[] again for every hit
+//   an immutable object never needs defensive copies: encode the result once, and share the bytes
+//
+// example: Immutable, Pre-encoded Factors
+@Immutable
+public final class EncodedFactors {
+    private final ByteBuffer bytes;              // read-only, and only ever read with absolute (position-independent) methods
+
+    private EncodedFactors(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    // wraps bytes already in wire format (e.g. a slice of a memory-mapped file); the caller must never write to them again
+    static EncodedFactors wrap(ByteBuffer readOnly) {
+        return new EncodedFactors(readOnly);
+    }
+
+    // wire format: factor count, then for each factor its byte length and its two's-complement bytes
+    public static EncodedFactors encode(BigInteger[] factors) {
+        byte[][] parts = new byte[factors.length][];
+        int size = 4;
+        for (int k = 0; k < factors.length; k++) {
+            parts[k] = factors[k].toByteArray();
+            size += 4 + parts[k].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);   // direct: the socket write needs no extra copy out of the heap
+        buf.putInt(factors.length);
+        for (byte[] part : parts) {
+            buf.putInt(part.length).put(part);
+        }
+        buf.flip();
+        return new EncodedFactors(buf.asReadOnlyBuffer());  // nobody holds a writable view after construction
+    }
+
+    public int length() {
+        return bytes.limit();
+    }
+
+    // bulk copy into the caller's buffer; absolute get/put never touch our position, so concurrent readers don't race
+    public void writeTo(ByteBuffer dst) {
+        dst.put(dst.position(), bytes, 0, bytes.limit());
+        dst.position(dst.position() + bytes.limit());
+    }
+
+    public BigInteger[] decode() {
+        BigInteger[] factors = new BigInteger[bytes.getInt(0)];
+        int at = 4;
+        for (int k = 0; k < factors.length; k++) {
+            byte[] part = new byte[bytes.getInt(at)];
+            bytes.get(at + 4, part);
+            factors[k] = new BigInteger(part);
+            at += 4 + part.length;
+        }
+        return factors;
+    }
+}
+// why is it safe to share?
+//   a ByteBuffer is not thread-safe: its position and limit are mutable fields
+//   EncodedFactors never exposes the buffer and never calls relative get/put on it, so its only state is the content,
+//   which is written once before the final field is assigned (and published together with the object)
+
+// example: a Pool of Direct Response Buffers
+//   (a ThreadLocal buffer works for pooled request threads, but not for one virtual thread per request)
+//   the free list is an ArrayBlockingQueue: its slots are preallocated, so poll/offer allocate nothing
+//   (a ConcurrentLinkedQueue allocates a node on every offer), at the cost of one short lock per call
+@ThreadSafe
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.free = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+        this.bufferSize = bufferSize;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        return buf != null ? buf : ByteBuffer.allocateDirect(bufferSize);  // only allocates while the pool warms up
+    }
+
+    public void release(ByteBuffer buf) {
+        buf.clear();
+        free.offer(buf);                         // from here on the buffer is confined to whichever thread takes it next;
+    }                                            //   if the pool is already full, the buffer is left to the GC
+}
+
+// example: Encoding a Cache Hit without Copies of the Factors
+@ThreadSafe
+public class EncodedCachedFactorizer implements Servlet {
+    private final BoundedFactorCache cache = new BoundedFactorCache(1024);
+    private final BufferPool buffers = new BufferPool(64 * 1024, 256);  // at most 256 idle buffers kept
+    private final Factorizer engine;
+
+    public EncodedCachedFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) throws IOException {
+        BigInteger i = extractFromRequest(req);
+        EncodedFactors factors = cache.getEncoded(i);
+        if (factors == null) {
+            factors = cache.put(i, engine.factor(i));   // encoded once, inside the cache entry
+        }
+        ByteBuffer buf = buffers.acquire();
+        try {
+            factors.writeTo(buf);                // one bulk memory copy, no BigInteger, no array clone
+            buf.flip();
+            writeToResponse(resp, buf);          // e.g. a WritableByteChannel over the response stream
+        } finally {
+            buffers.release(buf);
+        }
+    }
+}
+// note: the bytes are still copied once into the pooled buffer, because a channel write consumes the source buffer's
+//   position, which a shared buffer cannot allow; what's gone are the array copies and the per-hit re-encoding
 
@@ -27,3 +27,300 @@ public void initialize() {
 //   Because of visibility problems, the Holder could appear to another thread to be in an inconsistent state,
 //     even though its invariants were properly established by its constructor
 //   This improper publication could allow another thread to observe a partially constructed object
+
+// (good example: Caching Many Results Using a Bounded Cache of Immutable Entries)
+@ThreadSafe
+public class BoundedCachedFactorizer implements Servlet {
+    private final BoundedFactorCache cache = new BoundedFactorCache(1024);
+    private final Factorizer engine;
+
+    public BoundedCachedFactorizer(Factorizer engine) {
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        BigInteger i = extractFromRequest(req);
+        EncodedFactors factors = cache.getEncoded(i);   // a hit shares the cached entry: no decode, no copy
+        if (factors == null) {
+            factors = cache.put(i, engine.factor(i));          // no shared volatile field is overwritten on every miss
+        }
+        encodeIntoResponse(resp, factors);
+    }
+}
+// why is it good?
+//   the entries are immutable and published through a ConcurrentMap (a safe publication mechanism),
+//     so the same guarantee as the volatile OneValueCache reference holds, but for up to 1024 numbers instead of one
+
+// publishing through a file
+//   after every deploy the caches start empty and the CPU spikes while they refill
+//   a memory-mapped file lets results computed by the previous process be served directly:
+//   the mapping is shared memory, so the same publication rules apply to its bytes as to any other shared state
+//
+// example: Persistent, Memory-mapped Factor Cache
+//   data: an append-only log of records [length][crc32][key length][key bytes][EncodedFactors bytes]
+//   index: an off-heap open-addressing table of (key hash, record offset) slots, written by one thread, read by many
+@ThreadSafe
+public class MappedFactorCache implements Closeable {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int HEADER = 8;                 // record length + crc32
+    private static final int SLOT = 16;                  // key hash + record offset
+
+    private final FileChannel channel;
+    private final MappedByteBuffer log;                  // only read through absolute methods and slices
+    private final ByteBuffer index;                      // off-heap, one slot per possible record
+    private final int slots;
+    @GuardedBy("this") private int tail;                 // end of the last valid record: the next append goes here
+    @GuardedBy("this") private int records;
+
+    public MappedFactorCache(Path file, int maxBytes, int maxRecords) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        this.slots = Integer.highestOneBit(maxRecords * 2 - 1) << 1;   // power of two, load factor <= 0.5
+        this.index = ByteBuffer.allocateDirect(slots * SLOT).order(ByteOrder.nativeOrder());
+        recover();
+    }
+
+    // walks the record headers and checksums once (the factors are never deserialized), stopping at a torn tail,
+    //   or once the index is half full: a file written with a larger maxRecords would otherwise fill every slot,
+    //   and index() would probe forever; the records past that point stay in the file but are not served, and since
+    //   append() refuses to write once the index is half full, they are never overwritten either
+    private synchronized void recover() {
+        int at = 0;
+        while (at + HEADER <= log.capacity() && records < slots / 2) {
+            int length = log.getInt(at);
+            if (length <= 0 || at + HEADER + length > log.capacity() || crc(at + HEADER, length) != log.getInt(at + 4)) {
+                break;                                   // zero means end of log, a bad crc means a crash mid-append
+            }
+            index(hash(keyAt(at)), at);
+            at += HEADER + length;
+        }
+        tail = at;
+    }
+
+    public EncodedFactors get(BigInteger i) {            // lock-free: readers only see fully indexed records
+        byte[] key = i.toByteArray();
+        long h = hash(key);
+        for (int slot = (int) h & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long slotHash = (long) LONGS.getAcquire(index, slot * SLOT);
+            if (slotHash == 0) {
+                return null;
+            }
+            if (slotHash == h) {
+                int at = (int) (long) LONGS.get(index, slot * SLOT + 8);
+                if (Arrays.equals(keyAt(at), key)) {
+                    int keyLength = log.getInt(at + HEADER);
+                    int valueAt = at + HEADER + 4 + keyLength;
+                    int valueLength = log.getInt(at) - 4 - keyLength;
+                    return EncodedFactors.wrap(log.slice(valueAt, valueLength).asReadOnlyBuffer());
+                }
+            }
+        }
+    }
+
+    public synchronized void append(BigInteger i, EncodedFactors factors) {  // single writer
+        byte[] key = i.toByteArray();
+        int length = 4 + key.length + factors.length();
+        if (get(i) != null || tail + HEADER + length > log.capacity() || records >= slots / 2) {
+            return;                                      // already present, or the file/index is full: stop persisting
+        }
+        int at = tail;
+        log.putInt(at + HEADER, key.length);
+        log.put(at + HEADER + 4, key);
+        ByteBuffer value = log.slice(at + HEADER + 4 + key.length, factors.length());
+        factors.writeTo(value);
+        log.putInt(at + 4, crc(at + HEADER, length));
+        log.putInt(at, length);                          // written last: a crash before this leaves the record invisible
+        index(hash(key), at);                            // publishes the record to readers (release store of the hash)
+        tail = at + HEADER + length;
+    }
+
+    @GuardedBy("this")
+    private void index(long h, int at) {
+        int slot = (int) h & (slots - 1);
+        while ((long) LONGS.get(index, slot * SLOT) != 0) {
+            slot = (slot + 1) & (slots - 1);
+        }
+        LONGS.set(index, slot * SLOT + 8, (long) at);    // the offset is written first...
+        LONGS.setRelease(index, slot * SLOT, h);         // ...and made visible by the release store of the hash
+        records++;
+    }
+
+    private byte[] keyAt(int at) {
+        byte[] key = new byte[log.getInt(at + HEADER)];
+        log.get(at + HEADER + 4, key);
+        return key;
+    }
+
+    private int crc(int from, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(log.slice(from, length));
+        return (int) crc.getValue();
+    }
+
+    private static long hash(byte[] key) {
+        long h = Arrays.hashCode(key) * 0x9E3779B97F4A7C15L;
+        return h == 0 ? 1 : h;                           // 0 marks an empty slot
+    }
+
+    public void force() {                                // call periodically (or per append) to bound what a crash can lose
+        log.force();
+    }
+
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
+// why is it safe?
+// 1) the record bytes and the index offset are written before the release store of the slot's hash, and readers start
+//    with an acquire load of that hash, so a reader that finds a record also sees all of its bytes
+// 2) published records are never modified, so readers can slice them freely (slices have their own position and limit)
+// 3) appends are serialized by the intrinsic lock, and the crc plus "length written last" rule make a torn append invisible
+//    after a restart instead of serving a half-written record
+//
+// example: a Factorizer Served from the Mapped Cache at Startup
+@ThreadSafe
+public class PersistentCachedFactorizer implements Servlet {
+    private final BoundedFactorCache cache = new BoundedFactorCache(1024);
+    private final MappedFactorCache persistent;
+    private final Factorizer engine;
+
+    public PersistentCachedFactorizer(MappedFactorCache persistent, Factorizer engine) {
+        this.persistent = persistent;                    // opened (and recovered) before the servlet takes traffic
+        this.engine = engine;
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        BigInteger i = extractFromRequest(req);
+        EncodedFactors factors = cache.getEncoded(i);
+        if (factors == null) {
+            factors = persistent.get(i);                 // previous process' results: no recomputation, no deserialization
+            if (factors == null) {
+                factors = cache.put(i, engine.factor(i));
+                persistent.append(i, factors);
+            } else {
+                factors = cache.put(i, factors);         // promoted: the next request is an in-memory hit, with no
+            }                                            //   index probe and no key/slice/wrapper allocation
+        }
+        encodeIntoResponse(resp, factors);
+    }
+}
+
+// Safe Publication Idioms applied: a shared, lazily extended table of small primes
+//   trial division is the first stage of every factoring engine, and each engine recomputing (or boxing) the small primes
+//   on every call wastes time; one table can be shared by all servlets if it is published safely:
+//   1) the table itself is immutable, so once a thread has a reference it needs no synchronization to read it
+//   2) the reference is published through a volatile field, and extending the table publishes a new, larger table
+//
+// example: Immutable Packed Prime Table (odd numbers only, one bit each)
+@Immutable
+public final class PrimeTable {
+    private static final int SEGMENT = 1 << 18;          // numbers sieved per pass: keeps the segment's words in cache
+    private final long[] composite;                      // bit k set: 2k + 1 is not prime
+    private final int limit;                             // the table covers all numbers < limit
+
+    private PrimeTable(long[] composite, int limit) {
+        this.composite = composite;
+        this.limit = limit;
+    }
+
+    static PrimeTable initial(int bound) {
+        PrimeTable t = new PrimeTable(new long[] { 1L }, 3);  // 1 is not prime, 2 is handled separately
+        while (t.limit() < bound) {
+            t = t.extend((int) Math.min((long) t.limit() * t.limit(), bound));
+        }
+        return t;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public boolean isPrime(int n) {                      // n must be below limit(): use PrimeSieve.ensure(n + 1) first
+        if (n >= limit) {
+            throw new IllegalArgumentException(n + " is beyond the table (limit " + limit + ")");
+        }
+        if (n < 2) {
+            return false;
+        }
+        return n == 2 || ((n & 1) == 1 && (composite[n >>> 7] & (1L << (n >>> 1))) == 0);
+    }
+
+    // smallest prime > n, or -1 beyond the table: iterating with it allocates nothing
+    //   for (int p = 2; p != -1 && p <= bound; p = table.nextPrime(p)) { ... }
+    public int nextPrime(int n) {
+        if (n < 2) {
+            return 2;
+        }
+        int k = (n + 1) >>> 1;                           // index of the first odd number > n
+        int word = k >>> 6;
+        if (word >= composite.length) {
+            return -1;
+        }
+        long w = ~composite[word] & (-1L << k);
+        while (w == 0) {
+            if (++word == composite.length) {
+                return -1;
+            }
+            w = ~composite[word];
+        }
+        long p = 2L * (word * 64L + Long.numberOfTrailingZeros(w)) + 1;
+        return p < limit ? (int) p : -1;
+    }
+
+    // a new table covering numbers < newLimit; this one is left untouched, so readers holding it are unaffected
+    PrimeTable extend(int newLimit) {
+        if ((long) limit * limit < newLimit) {
+            throw new IllegalArgumentException("can only extend up to limit^2: " + newLimit);
+        }
+        long[] bits = Arrays.copyOf(composite, ((newLimit >>> 1) + 63) >>> 6);
+        for (long from = limit; from < newLimit; from += SEGMENT) {
+            long to = Math.min(from + SEGMENT, newLimit);
+            for (int p = 3; p != -1 && (long) p * p < to; p = nextPrime(p)) {   // sieving primes come from the old table
+                long start = Math.max((long) p * p, (from + p - 1) / p * p);
+                if ((start & 1) == 0) {
+                    start += p;                          // only odd multiples are stored
+                }
+                for (long j = start; j < to; j += 2L * p) {
+                    bits[(int) (j >>> 7)] |= 1L << (j >>> 1);
+                }
+            }
+        }
+        return new PrimeTable(bits, newLimit);
+    }
+}
+
+// example: Safely Publishing a Growing Immutable Table through a Volatile Reference
+@ThreadSafe
+public final class PrimeSieve {
+    private static final PrimeSieve SHARED = new PrimeSieve();  // static initializer: safely published to every thread
+
+    private volatile PrimeTable table = PrimeTable.initial(1 << 16);
+
+    public static PrimeSieve shared() {
+        return SHARED;
+    }
+
+    public PrimeTable table() {
+        return table;                                   // one volatile read, then lock-free reads of an immutable table
+    }
+
+    public PrimeTable ensure(int bound) {               // a table covering all numbers < bound
+        PrimeTable t = table;
+        if (t.limit() >= bound) {
+            return t;
+        }
+        synchronized (this) {                           // extensions are serialized, readers never wait for them
+            t = table;
+            while (t.limit() < bound) {
+                long next = Math.max(bound, 2L * t.limit());
+                t = t.extend((int) Math.min(Math.min(next, (long) t.limit() * t.limit()), Integer.MAX_VALUE));
+            }
+            table = t;                                  // volatile write: publishes the fully built table
+            return t;
+        }
+    }
+}
+// why not a synchronized, mutable bitset extended in place?
+//   every reader would need the lock (or would risk seeing a half-sieved segment)
+//   with an immutable table the only shared mutable state is one volatile reference, exactly as in VolatileCachedFactorizer